@@ -0,0 +1,93 @@
+package app.render;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+abstract class AbstractRenderTask implements RenderTask {
+    private final UUID id = UUID.randomUUID();
+    private final String name;
+    private final Duration estimatedDuration;
+    private final List<RenderTask> dependencies;
+    private volatile String contentHash;
+
+    AbstractRenderTask(String name, Duration estimatedDuration, List<? extends RenderTask> dependencies) {
+        this.name = Objects.requireNonNull(name, "name");
+        this.estimatedDuration = Objects.requireNonNull(estimatedDuration, "estimatedDuration");
+        this.dependencies = List.copyOf(dependencies);
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public List<RenderTask> dependencies() {
+        return dependencies;
+    }
+
+    @Override
+    public Duration estimatedDuration() {
+        return estimatedDuration;
+    }
+
+    @Override
+    public String contentHash() {
+        String hash = contentHash;
+        if (hash == null) {
+            hash = computeContentHash();
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    abstract String computeContentHash();
+
+    // Without a content hash the outputs cannot be told apart across runs, so the checkpoint is only good for this task.
+    String checkpointKey(String kind, Object target) {
+        String hash = contentHash();
+        return hash == null ? getId().toString() : kind + ":" + fingerprint(hash, target);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    static String fingerprint(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (Object part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    // Clip ids and timeline positions are not part of the key, so moving or reloading a clip keeps its hash.
+    static String fingerprint(RenderClip clip) {
+        return fingerprint(clip.trackType(), sourceIdentity(clip.source()), clip.sourceOffset(), clip.duration(),
+                clip.playbackRate(), clip.audioGainDb());
+    }
+
+    static String sourceIdentity(Path source) {
+        Path absolute = source.toAbsolutePath();
+        try {
+            return absolute + "|" + Files.size(absolute) + "|" + Files.getLastModifiedTime(absolute).toMillis();
+        } catch (IOException missing) {
+            return absolute + "|missing";
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package app.render;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface Checkpoints {
+    Checkpoints NONE = new Checkpoints() {
+        @Override
+        public boolean isComplete(String key) {
+            return false;
+        }
+
+        @Override
+        public void record(String key, List<Path> outputs) {
+        }
+    };
+
+    boolean isComplete(String key);
+
+    void record(String key, List<Path> outputs) throws IOException;
+}
@@ -0,0 +1,95 @@
+package app.render;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CriticalPathScheduler {
+    private final DurationEstimator estimator;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public CriticalPathScheduler(int threads, DurationEstimator estimator) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be > 0");
+        }
+        this.estimator = Objects.requireNonNull(estimator, "estimator");
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "montage-render-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public DurationEstimator estimator() {
+        return estimator;
+    }
+
+    public Map<UUID, Duration> ranks(RenderDag dag) {
+        List<RenderTask> order = dag.topologicalOrder();
+        Map<UUID, Duration> ranks = new HashMap<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            RenderTask task = order.get(i);
+            Duration longestTail = Duration.ZERO;
+            for (RenderTask dependent : dag.dependents(task.getId())) {
+                Duration tail = ranks.get(dependent.getId());
+                if (tail.compareTo(longestTail) > 0) {
+                    longestTail = tail;
+                }
+            }
+            ranks.put(task.getId(), estimator.estimate(task).plus(longestTail));
+        }
+        return ranks;
+    }
+
+    public Duration criticalPath(RenderDag dag) {
+        return ranks(dag).values().stream().max(Duration::compareTo).orElse(Duration.ZERO);
+    }
+
+    public Future<?> submit(Runnable runnable, Duration rank) {
+        PrioritizedTask task = new PrioritizedTask(runnable, rank.toNanos(), sequence.getAndIncrement());
+        pool.execute(task);
+        return task;
+    }
+
+    public void taskCompleted(RenderTask task, Duration measured) {
+        estimator.record(task, measured);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class PrioritizedTask extends FutureTask<Void> implements Comparable<PrioritizedTask> {
+        private final long rank;
+        private final long sequence;
+
+        private PrioritizedTask(Runnable runnable, long rank, long sequence) {
+            super(runnable, null);
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int byRank = Long.compare(other.rank, rank);
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+    }
+}
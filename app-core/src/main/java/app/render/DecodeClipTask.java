@@ -0,0 +1,55 @@
+package app.render;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+final class DecodeClipTask extends AbstractRenderTask {
+    private final RenderBackend backend;
+    private final RenderClip clip;
+    private final RenderPreset preset;
+    private final Path output;
+
+    DecodeClipTask(RenderBackend backend, RenderClip clip, RenderPreset preset, Path output, Duration estimate) {
+        super("decode[" + clip.source().getFileName() + "@" + clip.timelineStart().toMillis() + "ms]", estimate, List.of());
+        this.backend = Objects.requireNonNull(backend, "backend");
+        this.clip = clip;
+        this.preset = preset;
+        this.output = output;
+    }
+
+    RenderClip clip() {
+        return clip;
+    }
+
+    Path output() {
+        return output;
+    }
+
+    @Override
+    String computeContentHash() {
+        return fingerprint("decode", backend.decodeCacheKey(), fingerprint(clip), preset.name());
+    }
+
+    @Override
+    public String checkpointKey() {
+        return checkpointKey("decode", output.getFileName());
+    }
+
+    @Override
+    public List<Path> outputs() {
+        return List.of(output);
+    }
+
+    @Override
+    public boolean intermediateOutputs() {
+        return true;
+    }
+
+    @Override
+    public void execute(RenderTaskContext context) throws Exception {
+        context.checkCancelled();
+        backend.decode(clip, preset, output, context);
+    }
+}
@@ -0,0 +1,37 @@
+package app.render;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class DurationEstimator {
+    private static final double SMOOTHING = 0.3;
+
+    private final ConcurrentMap<String, Double> corrections = new ConcurrentHashMap<>();
+
+    public Duration estimate(RenderTask task) {
+        Objects.requireNonNull(task, "task");
+        Duration base = task.estimatedDuration();
+        return Duration.ofNanos(Math.round(base.toNanos() * correction(kindOf(task))));
+    }
+
+    public void record(RenderTask task, Duration measured) {
+        Objects.requireNonNull(task, "task");
+        Objects.requireNonNull(measured, "measured");
+        long base = task.estimatedDuration().toNanos();
+        if (base <= 0) {
+            return;
+        }
+        double ratio = measured.toNanos() / (double) base;
+        corrections.merge(kindOf(task), ratio, (previous, observed) -> previous + SMOOTHING * (observed - previous));
+    }
+
+    public double correction(String kind) {
+        return corrections.getOrDefault(kind, 1.0);
+    }
+
+    static String kindOf(RenderTask task) {
+        return task.getClass().getName();
+    }
+}
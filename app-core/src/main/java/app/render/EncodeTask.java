@@ -0,0 +1,45 @@
+package app.render;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+final class EncodeTask extends AbstractRenderTask {
+    private final RenderBackend backend;
+    private final RenderJob job;
+    private final List<SegmentEffectsTask> segments;
+
+    EncodeTask(RenderBackend backend, RenderJob job, Duration estimate, List<SegmentEffectsTask> segments) {
+        super("encode[" + job.getOutput().getFileName() + "]", estimate, segments);
+        this.backend = Objects.requireNonNull(backend, "backend");
+        this.job = job;
+        this.segments = List.copyOf(segments);
+    }
+
+    @Override
+    String computeContentHash() {
+        String backendKey = backend.cacheKey();
+        if (backendKey == null) {
+            return null;
+        }
+        return fingerprint("encode", backendKey, job.getPreset().name(),
+                segments.stream().map(SegmentEffectsTask::contentHash).toList());
+    }
+
+    @Override
+    public String checkpointKey() {
+        return checkpointKey("encode", job.getOutput().toAbsolutePath());
+    }
+
+    @Override
+    public List<Path> outputs() {
+        return List.of(job.getOutput());
+    }
+
+    @Override
+    public void execute(RenderTaskContext context) throws Exception {
+        context.checkCancelled();
+        backend.encode(job, segments.stream().map(SegmentEffectsTask::output).toList(), context);
+    }
+}
@@ -1,16 +1,53 @@
 package app.render;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ProgressReporter {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(100);
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgressReporter.class);
+    private static final double RATE_SMOOTHING = 0.3;
+    private static volatile Thread deliveryThread;
+    // Listeners run here, never on the thread that reports progress.
+    private static final ScheduledExecutorService DELIVERY = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "montage-progress");
+        thread.setDaemon(true);
+        deliveryThread = thread;
+        return thread;
+    });
+
     private final Consumer<ProgressSnapshot> listener;
+    private final long intervalNanos;
     private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
     private volatile long total = 1;
+    private volatile long lastDeliveryNanos;
+    private long lastSampleNanos;
+    private long lastSampleUnits = -1;
+    private double unitsPerSecond;
 
     public ProgressReporter(Consumer<ProgressSnapshot> listener) {
+        this(listener, DEFAULT_INTERVAL);
+    }
+
+    public ProgressReporter(Consumer<ProgressSnapshot> listener, Duration interval) {
         this.listener = listener != null ? listener : snapshot -> { };
+        this.intervalNanos = Objects.requireNonNull(interval, "interval").toNanos();
+        if (intervalNanos < 0) {
+            throw new IllegalArgumentException("interval must not be negative");
+        }
+        this.lastSampleNanos = System.nanoTime();
+        this.lastDeliveryNanos = lastSampleNanos - intervalNanos;
     }
 
     public void setTotal(long total) {
@@ -18,10 +55,72 @@ public class ProgressReporter {
     }
 
     public void increment(long value) {
-        long done = completed.addAndGet(value);
-        double ratio = Math.min(1.0, done / (double) total);
-        listener.accept(new ProgressSnapshot(ratio, done, total, Instant.now()));
+        completed.addAndGet(value);
+        requestDelivery();
+    }
+
+    public void update(long completedUnits) {
+        completed.set(completedUnits);
+        requestDelivery();
+    }
+
+    public long completedUnits() {
+        return completed.get();
+    }
+
+    // Delivers the latest state and waits for listeners to see it; used when the work behind this reporter ends.
+    public void flush() {
+        if (Thread.currentThread() == deliveryThread) {
+            deliver();
+            return;
+        }
+        try {
+            DELIVERY.submit(this::deliver).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.warn("Progress delivery failed", e.getCause());
+        }
+    }
+
+    private void requestDelivery() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(0, lastDeliveryNanos + intervalNanos - System.nanoTime());
+        DELIVERY.schedule(this::deliver, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void deliver() {
+        scheduled.set(false);
+        long done = completed.get();
+        if (done == lastSampleUnits) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - lastSampleNanos;
+        if (lastSampleUnits >= 0 && elapsed > 0) {
+            double rate = (done - lastSampleUnits) * 1e9 / elapsed;
+            unitsPerSecond = unitsPerSecond == 0 ? rate : unitsPerSecond + RATE_SMOOTHING * (rate - unitsPerSecond);
+        } else if (elapsed > 0) {
+            unitsPerSecond = done * 1e9 / elapsed;
+        }
+        lastSampleNanos = now;
+        lastSampleUnits = done;
+        lastDeliveryNanos = now;
+
+        long totalUnits = total;
+        long remaining = Math.max(0, totalUnits - done);
+        Duration eta = remaining == 0 ? Duration.ZERO
+                : unitsPerSecond > 0 ? Duration.ofMillis(Math.round(remaining * 1000 / unitsPerSecond)) : null;
+        try {
+            listener.accept(new ProgressSnapshot(Math.min(1.0, done / (double) totalUnits), done, totalUnits,
+                    Instant.now(), unitsPerSecond, eta));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Progress listener failed", e);
+        }
     }
 
-    public record ProgressSnapshot(double progress, long completedUnits, long totalUnits, Instant timestamp) { }
+    public record ProgressSnapshot(double progress, long completedUnits, long totalUnits, Instant timestamp,
+                                   double unitsPerSecond, Duration eta) { }
 }
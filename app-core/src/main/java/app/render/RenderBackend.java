@@ -0,0 +1,26 @@
+package app.render;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public interface RenderBackend {
+    void decode(RenderClip clip, RenderPreset preset, Path output, RenderTaskContext context) throws Exception;
+
+    void applyEffects(RenderSegment segment, RenderPreset preset, Path output, RenderTaskContext context) throws Exception;
+
+    void encode(RenderJob job, List<Path> segments, RenderTaskContext context) throws Exception;
+
+    // Keys effect and encode outputs; null when they cannot be keyed, in which case those nodes are never cached.
+    default String cacheKey() {
+        return getClass().getName();
+    }
+
+    // Keys decoded clips, which only depend on the decoder, so effect changes keep them cached.
+    default String decodeCacheKey() {
+        return getClass().getName();
+    }
+
+    default String intermediateExtension() {
+        return "mkv";
+    }
+}
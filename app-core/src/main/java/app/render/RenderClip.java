@@ -0,0 +1,35 @@
+package app.render;
+
+import app.domain.TrackType;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.UUID;
+
+public record RenderClip(UUID clipId,
+                         TrackType trackType,
+                         Path source,
+                         Duration sourceOffset,
+                         Duration timelineStart,
+                         Duration duration,
+                         double playbackRate,
+                         double audioGainDb) {
+    public RenderClip {
+        Objects.requireNonNull(clipId, "clipId");
+        Objects.requireNonNull(trackType, "trackType");
+        Objects.requireNonNull(source, "source");
+        Objects.requireNonNull(sourceOffset, "sourceOffset");
+        Objects.requireNonNull(timelineStart, "timelineStart");
+        Objects.requireNonNull(duration, "duration");
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("duration must be positive");
+        }
+        if (playbackRate <= 0.0) {
+            throw new IllegalArgumentException("playbackRate must be positive");
+        }
+    }
+
+    public Duration timelineEnd() {
+        return timelineStart.plus(duration);
+    }
+}
@@ -51,4 +51,20 @@ public class RenderDag {
     public Set<UUID> taskIds() {
         return tasks.keySet();
     }
+
+    public RenderTask task(UUID id) {
+        return tasks.get(id);
+    }
+
+    public List<RenderTask> dependents(UUID id) {
+        return adjacency.getOrDefault(id, List.of()).stream().map(tasks::get).toList();
+    }
+
+    public int dependencyCount(UUID id) {
+        return indegree.getOrDefault(id, 0);
+    }
+
+    public int size() {
+        return tasks.size();
+    }
 }
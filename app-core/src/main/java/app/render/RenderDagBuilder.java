@@ -0,0 +1,128 @@
+package app.render;
+
+import app.domain.TrackType;
+import app.timeline.Timeline;
+import app.timeline.TimelineClip;
+import app.timeline.TimelineTrack;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+public class RenderDagBuilder {
+    private static final double REFERENCE_PIXEL_RATE = 1920.0 * 1080.0 * 30.0;
+    private static final double DECODE_COST = 0.5;
+    private static final double EFFECTS_COST = 0.75;
+    private static final double ENCODE_COST = 1.0;
+
+    private final RenderBackend backend;
+    private final Path workRoot;
+
+    public RenderDagBuilder(RenderBackend backend, Path workRoot) {
+        this.backend = Objects.requireNonNull(backend, "backend");
+        this.workRoot = Objects.requireNonNull(workRoot, "workRoot");
+    }
+
+    public Path workDirectory(RenderJob job) {
+        return workRoot.resolve(job.getId().toString());
+    }
+
+    public RenderDag build(RenderJob job, Timeline timeline) {
+        Objects.requireNonNull(job, "job");
+        Objects.requireNonNull(timeline, "timeline");
+        Path workDir = workDirectory(job);
+        String extension = backend.intermediateExtension();
+        double scale = pixelRate(job.getPreset()) / REFERENCE_PIXEL_RATE;
+
+        List<DecodeClipTask> decodes = new ArrayList<>();
+        for (RenderClip clip : clipsInRange(timeline, job.getStart(), job.getEnd())) {
+            Path output = workDir.resolve(String.format("decode-%03d.%s", decodes.size(), extension));
+            decodes.add(new DecodeClipTask(backend, clip, job.getPreset(), output, scaled(clip.duration(), DECODE_COST * scale)));
+        }
+        if (decodes.isEmpty()) {
+            throw new IllegalStateException("Project " + job.getProjectFile() + " has no clips between "
+                    + job.getStart() + " and " + job.getEnd());
+        }
+
+        TreeSet<Duration> boundaries = new TreeSet<>();
+        boundaries.add(job.getStart());
+        boundaries.add(job.getEnd());
+        for (DecodeClipTask decode : decodes) {
+            boundaries.add(decode.clip().timelineStart());
+            boundaries.add(decode.clip().timelineEnd());
+        }
+
+        List<SegmentEffectsTask> segments = new ArrayList<>();
+        Duration segmentStart = null;
+        for (Duration boundary : boundaries) {
+            if (segmentStart != null) {
+                List<RenderSegment.Layer> layers = new ArrayList<>();
+                List<DecodeClipTask> inputs = new ArrayList<>();
+                for (DecodeClipTask decode : decodes) {
+                    RenderClip clip = decode.clip();
+                    if (clip.timelineStart().compareTo(segmentStart) <= 0 && clip.timelineEnd().compareTo(boundary) >= 0) {
+                        layers.add(new RenderSegment.Layer(clip, decode.output(), segmentStart.minus(clip.timelineStart())));
+                        inputs.add(decode);
+                    }
+                }
+                RenderSegment segment = new RenderSegment(segments.size(), segmentStart, boundary, layers);
+                Path output = workDir.resolve(String.format("segment-%03d.%s", segment.index(), extension));
+                segments.add(new SegmentEffectsTask(backend, segment, job.getPreset(), output,
+                        scaled(segment.duration(), EFFECTS_COST * scale), inputs));
+            }
+            segmentStart = boundary;
+        }
+
+        EncodeTask encode = new EncodeTask(backend, job,
+                scaled(job.getEnd().minus(job.getStart()), ENCODE_COST * scale), segments);
+
+        RenderDag dag = new RenderDag();
+        decodes.forEach(dag::addTask);
+        segments.forEach(dag::addTask);
+        dag.addTask(encode);
+        return dag;
+    }
+
+    public static Duration estimateWork(RenderJob job) {
+        double scale = pixelRate(job.getPreset()) / REFERENCE_PIXEL_RATE;
+        return scaled(job.getEnd().minus(job.getStart()), (DECODE_COST + EFFECTS_COST + ENCODE_COST) * scale);
+    }
+
+    static List<RenderClip> clipsInRange(Timeline timeline, Duration start, Duration end) {
+        List<RenderClip> clips = new ArrayList<>();
+        for (TimelineTrack track : timeline.getTracks()) {
+            if (track.getType() == TrackType.EFFECTS) {
+                continue;
+            }
+            for (TimelineClip clip : track.getClips()) {
+                Duration overlapStart = max(clip.getStart(), start);
+                Duration overlapEnd = min(clip.getEnd(), end);
+                if (overlapEnd.compareTo(overlapStart) <= 0) {
+                    continue;
+                }
+                Duration sourceOffset = scaled(overlapStart.minus(clip.getStart()), clip.getPlaybackRate());
+                clips.add(new RenderClip(clip.getId(), track.getType(), clip.getSource(), sourceOffset, overlapStart,
+                        overlapEnd.minus(overlapStart), clip.getPlaybackRate(), clip.getAudioGainDb()));
+            }
+        }
+        return clips;
+    }
+
+    private static double pixelRate(RenderPreset preset) {
+        return (double) preset.width() * preset.height() * preset.frameRate();
+    }
+
+    private static Duration scaled(Duration duration, double factor) {
+        return Duration.ofNanos(Math.round(duration.toNanos() * factor));
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+}
@@ -0,0 +1,190 @@
+package app.render;
+
+import app.render.cache.RenderCache;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RenderDagExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenderDagExecutor.class);
+
+    private final CriticalPathScheduler scheduler;
+    private final int parallelism;
+    private final RenderCache cache;
+
+    public RenderDagExecutor(CriticalPathScheduler scheduler, int parallelism) {
+        this(scheduler, parallelism, null);
+    }
+
+    public RenderDagExecutor(CriticalPathScheduler scheduler, int parallelism, RenderCache cache) {
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be > 0");
+        }
+        this.parallelism = parallelism;
+        this.cache = cache;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public void execute(RenderDag dag, RenderTaskContext context, BiConsumer<RenderTask, Duration> onTaskCompleted) throws Exception {
+        execute(dag, context, Set.of(), onTaskCompleted);
+    }
+
+    public void execute(RenderDag dag, RenderTaskContext context, Set<UUID> completed,
+                        BiConsumer<RenderTask, Duration> onTaskCompleted) throws Exception {
+        Objects.requireNonNull(dag, "dag");
+        Objects.requireNonNull(context, "context");
+        Objects.requireNonNull(completed, "completed");
+        BiConsumer<RenderTask, Duration> listener = onTaskCompleted != null ? onTaskCompleted : (task, elapsed) -> { };
+        if (dag.size() == 0) {
+            return;
+        }
+
+        Map<UUID, Duration> ranks = scheduler.ranks(dag);
+        Map<UUID, Integer> remaining = new HashMap<>();
+        PriorityQueue<RenderTask> ready = new PriorityQueue<>(
+                Comparator.comparing((RenderTask task) -> ranks.get(task.getId())).reversed());
+        int finished = 0;
+        for (UUID id : dag.taskIds()) {
+            if (completed.contains(id)) {
+                finished++;
+                continue;
+            }
+            int count = (int) dag.task(id).dependencies().stream().filter(dep -> !completed.contains(dep.getId())).count();
+            remaining.put(id, count);
+            if (count == 0) {
+                ready.add(dag.task(id));
+            }
+        }
+
+        BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+        Map<UUID, Future<?>> inFlight = new HashMap<>();
+        try {
+            while (finished < dag.size()) {
+                while (!ready.isEmpty() && inFlight.size() < parallelism) {
+                    RenderTask task = ready.poll();
+                    inFlight.put(task.getId(), scheduler.submit(() -> completions.add(run(task, context)), ranks.get(task.getId())));
+                }
+
+                Completion completion = completions.take();
+                inFlight.remove(completion.task().getId());
+                if (completion.error() != null) {
+                    throw completion.error();
+                }
+                finished++;
+                if (!completion.task().outputs().isEmpty()) {
+                    context.checkpoints().record(completion.task().checkpointKey(), completion.task().outputs());
+                }
+                scheduler.taskCompleted(completion.task(), completion.elapsed());
+                listener.accept(completion.task(), completion.elapsed());
+                for (RenderTask dependent : dag.dependents(completion.task().getId())) {
+                    if (!completed.contains(dependent.getId()) && remaining.merge(dependent.getId(), -1, Integer::sum) == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Render job interrupted");
+        } finally {
+            if (finished < dag.size()) {
+                context.cancel();
+                inFlight.values().forEach(future -> future.cancel(true));
+            }
+        }
+    }
+
+    public static Set<UUID> completedTasks(RenderDag dag, Checkpoints checkpoints) throws IOException {
+        return completedTasks(dag, checkpoints, null);
+    }
+
+    // A task can be skipped when its checkpoint is still valid, when its outputs can be restored from the cache,
+    // or when nothing downstream needs it any more.
+    public static Set<UUID> completedTasks(RenderDag dag, Checkpoints checkpoints, RenderCache cache) throws IOException {
+        List<RenderTask> order = dag.topologicalOrder();
+        Set<UUID> needed = new HashSet<>();
+        Set<UUID> completed = new HashSet<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            RenderTask task = order.get(i);
+            boolean sink = dag.dependents(task.getId()).isEmpty();
+            if (!sink && !needed.contains(task.getId())) {
+                completed.add(task.getId());
+            } else if (!task.outputs().isEmpty() && checkpoints.isComplete(task.checkpointKey())) {
+                completed.add(task.getId());
+            } else if (restore(task, cache)) {
+                checkpoints.record(task.checkpointKey(), task.outputs());
+                completed.add(task.getId());
+            } else {
+                task.dependencies().forEach(dependency -> needed.add(dependency.getId()));
+            }
+        }
+        return completed;
+    }
+
+    private static boolean restore(RenderTask task, RenderCache cache) throws IOException {
+        if (cache == null || task.contentHash() == null || task.outputs().isEmpty()) {
+            return false;
+        }
+        if (cache.restore(task.contentHash(), task.outputs(), task.intermediateOutputs())) {
+            LOGGER.debug("Restored {} from render cache", task);
+            return true;
+        }
+        return false;
+    }
+
+    private Completion run(RenderTask task, RenderTaskContext context) {
+        long start = System.nanoTime();
+        try {
+            context.checkCancelled();
+            if (cache != null) {
+                // Outputs may be hard links into the cache, so they are replaced rather than written over.
+                for (Path output : task.outputs()) {
+                    Files.deleteIfExists(output);
+                }
+            }
+            task.execute(context);
+            store(task);
+            return new Completion(task, Duration.ofNanos(System.nanoTime() - start), null);
+        } catch (InterruptedException interrupted) {
+            return new Completion(task, Duration.ofNanos(System.nanoTime() - start), new CancellationException("Render task interrupted"));
+        } catch (Exception ex) {
+            return new Completion(task, Duration.ofNanos(System.nanoTime() - start), ex);
+        } catch (Error error) {
+            return new Completion(task, Duration.ofNanos(System.nanoTime() - start), new ExecutionException(error));
+        }
+    }
+
+    private void store(RenderTask task) {
+        if (cache == null || task.contentHash() == null || task.outputs().isEmpty()) {
+            return;
+        }
+        try {
+            cache.store(task.contentHash(), task.outputs(), task.intermediateOutputs());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache outputs of {}", task, e);
+        }
+    }
+
+    private record Completion(RenderTask task, Duration elapsed, Exception error) { }
+}
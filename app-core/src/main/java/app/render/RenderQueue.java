@@ -1,15 +1,15 @@
 package app.render;
 
+import app.render.cache.RenderCache;
 import app.render.storage.JobStore;
+import app.timeline.Timeline;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
@@ -17,23 +17,61 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class RenderQueue {
     private static final Logger LOGGER = LoggerFactory.getLogger(RenderQueue.class);
+    private static final long DEFAULT_CACHE_BYTES = 20L * 1024 * 1024 * 1024;
 
-    private final PriorityBlockingQueue<QueuedJob> queue = new PriorityBlockingQueue<>(11, Comparator.comparingInt(QueuedJob::priority).reversed());
+    private final PriorityBlockingQueue<QueuedJob> queue = new PriorityBlockingQueue<>(11,
+            Comparator.comparingInt(QueuedJob::priority).thenComparing(QueuedJob::estimatedWork).reversed());
     private final ExecutorService executor;
     private final JobStore jobStore;
+    private final TimelineResolver timelineResolver;
+    private final RenderDagBuilder dagBuilder;
+    private final CriticalPathScheduler scheduler;
+    private final RenderDagExecutor dagExecutor;
+    private final RenderCache cache;
+    private final ResourceBudget budget;
+    private final int maxWorkers;
+    private ResourceCost inUse = ResourceCost.ZERO;
+    private final ConcurrentHashMap<UUID, ResourceCost> admitted = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<UUID, Future<?>> running = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<UUID, RenderTaskContext> contexts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, CompletableFuture<Void>> completions = new ConcurrentHashMap<>();
 
-    public RenderQueue(Path jobStorePath, int maxWorkers) throws IOException {
+    public RenderQueue(Path jobStorePath, int maxWorkers, TimelineResolver timelineResolver, RenderBackend backend) throws IOException {
+        this(jobStorePath, maxWorkers, Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, maxWorkers)),
+                timelineResolver, backend);
+    }
+
+    public RenderQueue(Path jobStorePath, int maxWorkers, int tasksPerJob, TimelineResolver timelineResolver, RenderBackend backend) throws IOException {
+        this(jobStorePath, maxWorkers, tasksPerJob, timelineResolver, backend,
+                new RenderCache(jobStorePath.toAbsolutePath().resolveSibling("render-cache"), DEFAULT_CACHE_BYTES));
+    }
+
+    public RenderQueue(Path jobStorePath, int maxWorkers, int tasksPerJob, TimelineResolver timelineResolver, RenderBackend backend,
+                       RenderCache cache) throws IOException {
+        this(jobStorePath, maxWorkers, tasksPerJob, timelineResolver, backend, cache, ResourceBudget.detect());
+    }
+
+    public RenderQueue(Path jobStorePath, int maxWorkers, int tasksPerJob, TimelineResolver timelineResolver, RenderBackend backend,
+                       RenderCache cache, ResourceBudget budget) throws IOException {
         this.jobStore = new JobStore(jobStorePath);
-        this.executor = Executors.newFixedThreadPool(Math.max(1, maxWorkers));
+        this.cache = cache;
+        this.budget = Objects.requireNonNull(budget, "budget");
+        this.timelineResolver = Objects.requireNonNull(timelineResolver, "timelineResolver");
+        this.dagBuilder = new RenderDagBuilder(backend, jobStorePath.toAbsolutePath().resolveSibling("render-work"));
+        int workers = Math.max(1, maxWorkers);
+        this.maxWorkers = workers;
+        this.scheduler = new CriticalPathScheduler(workers * Math.max(1, tasksPerJob), new DurationEstimator());
+        this.dagExecutor = new RenderDagExecutor(scheduler, Math.max(1, tasksPerJob), cache);
+        this.executor = Executors.newFixedThreadPool(workers);
         jobStore.pending().forEach(job -> submit(job, 0));
     }
 
@@ -44,43 +82,83 @@ public class RenderQueue {
 
     private CompletableFuture<Void> submit(RenderJob job, int priority) {
         CompletableFuture<Void> future = new CompletableFuture<>();
-        queue.offer(new QueuedJob(job, priority, future));
+        completions.put(job.getId(), future);
+        queue.offer(new QueuedJob(job, priority, RenderDagBuilder.estimateWork(job), future));
         schedule();
         return future;
     }
 
-    private void schedule() {
-        while (!queue.isEmpty() && running.size() < ((java.util.concurrent.ThreadPoolExecutor) executor).getMaximumPoolSize()) {
-            QueuedJob qj = queue.poll();
-            if (qj == null) {
+    public int runningJobs() {
+        return running.size();
+    }
+
+    public synchronized ResourceCost resourcesInUse() {
+        return inUse;
+    }
+
+    // Admission is strictly in queue order: a large job at the head waits for capacity instead of being overtaken
+    // forever by smaller ones. A job bigger than the whole budget still runs once the queue is otherwise idle.
+    private synchronized void schedule() {
+        while (!queue.isEmpty() && running.size() < maxWorkers) {
+            QueuedJob head = queue.peek();
+            if (head == null) {
+                break;
+            }
+            ResourceCost cost = ResourceCost.of(head.job().getPreset(), dagExecutor.parallelism());
+            if (!running.isEmpty() && !inUse.plus(cost).fitsWithin(budget)) {
+                LOGGER.debug("Job {} waits for resources ({} in use, needs {})", head.job().getId(), inUse, cost);
                 break;
             }
-            Runnable runnable = () -> executeJob(qj.job(), qj.future());
-            Future<?> future = executor.submit(runnable);
-            running.put(qj.job().getId(), future);
+            QueuedJob qj = queue.poll();
+            if (qj != head) {
+                if (qj != null) {
+                    queue.offer(qj);
+                }
+                continue;
+            }
+            inUse = inUse.plus(cost);
+            admitted.put(qj.job().getId(), cost);
+            FutureTask<Void> task = new FutureTask<>(() -> executeJob(qj.job(), qj.future()), null);
+            running.put(qj.job().getId(), task);
+            executor.execute(task);
+        }
+    }
+
+    private synchronized void release(UUID jobId) {
+        ResourceCost cost = admitted.remove(jobId);
+        if (cost != null) {
+            inUse = inUse.minus(cost);
         }
     }
 
     private void executeJob(RenderJob job, CompletableFuture<Void> future) {
         LOGGER.info("Starting render job {} -> {}", job.getId(), job.getOutput());
-        RenderTaskContext context = new RenderTaskContext(progress -> LOGGER.debug("Job {} progress {}", job.getId(), progress));
+        RenderTaskContext context = new RenderTaskContext(progress -> LOGGER.debug("Job {} progress {}", job.getId(), progress),
+                jobStore.checkpointsFor(job.getId()));
         contexts.put(job.getId(), context);
-        ProgressReporter reporter = new ProgressReporter(snapshot -> LOGGER.debug("Job {} {}%", job.getId(), snapshot.progress() * 100));
+        ProgressReporter reporter = new ProgressReporter(snapshot -> LOGGER.debug("Job {} {}% (eta {})", job.getId(),
+                Math.round(snapshot.progress() * 100), snapshot.eta()));
+        Instant jobStart = Instant.now();
         try {
-            RenderDag dag = buildDag(job);
-            List<RenderTask> order = dag.topologicalOrder();
-            reporter.setTotal(order.size());
-            for (RenderTask task : order) {
-                context.checkCancelled();
-                Instant start = Instant.now();
-                task.execute(context);
-                reporter.increment(1);
-                Duration duration = Duration.between(start, Instant.now());
-                LOGGER.info("Task {} completed in {} ms", task.getId(), duration.toMillis());
+            context.checkCancelled();
+            Timeline timeline = timelineResolver.resolve(job.getProjectFile());
+            RenderDag dag = dagBuilder.build(job, timeline);
+            Set<UUID> completed = RenderDagExecutor.completedTasks(dag, context.checkpoints(), cache);
+            reporter.setTotal(dag.size());
+            reporter.increment(completed.size());
+            if (!completed.isEmpty()) {
+                LOGGER.info("Job {}: {} of {} tasks already complete or cached", job.getId(), completed.size(), dag.size());
             }
+            LOGGER.info("Job {} has {} tasks, critical path {} ms", job.getId(), dag.size(), scheduler.criticalPath(dag).toMillis());
+            dagExecutor.execute(dag, context, completed, (task, duration) -> {
+                reporter.increment(1);
+                LOGGER.info("Job {} task {} completed in {} ms (estimated {} ms, next estimate {} ms)", job.getId(), task,
+                        duration.toMillis(), task.estimatedDuration().toMillis(), scheduler.estimator().estimate(task).toMillis());
+            });
             jobStore.remove(job.getId());
+            FileUtils.deleteQuietly(dagBuilder.workDirectory(job).toFile());
             future.complete(null);
-            LOGGER.info("Render job {} completed", job.getId());
+            LOGGER.info("Render job {} completed in {} ms", job.getId(), Duration.between(jobStart, Instant.now()).toMillis());
         } catch (CancellationException cancel) {
             LOGGER.warn("Render job {} cancelled", job.getId());
             future.completeExceptionally(cancel);
@@ -88,98 +166,53 @@ public class RenderQueue {
             LOGGER.error("Render job {} failed", job.getId(), ex);
             future.completeExceptionally(ex);
         } finally {
+            release(job.getId());
             running.remove(job.getId());
             contexts.remove(job.getId());
+            completions.remove(job.getId());
             schedule();
         }
     }
 
-    private RenderDag buildDag(RenderJob job) {
-        RenderDag dag = new RenderDag();
-        RenderTask decode = new SimpleTask("decode", Duration.ofSeconds(1));
-        RenderTask analyze = new SimpleTask("analyze", Duration.ofSeconds(2), decode);
-        RenderTask effects = new SimpleTask("effects", Duration.ofSeconds(2), analyze);
-        RenderTask encode = new SimpleTask("encode", Duration.ofSeconds(3), effects);
-        dag.addTask(decode);
-        dag.addTask(analyze);
-        dag.addTask(effects);
-        dag.addTask(encode);
-        return dag;
-    }
-
     public void cancel(UUID jobId) {
         contexts.computeIfPresent(jobId, (id, ctx) -> {
             ctx.cancel();
             return ctx;
         });
         Future<?> future = running.remove(jobId);
+        CompletableFuture<Void> completion = completions.remove(jobId);
+        if (completion != null) {
+            completion.completeExceptionally(new CancellationException("Render job cancelled"));
+        }
         if (future != null) {
             future.cancel(true);
+            // A job cancelled before it started never reaches executeJob's finally, so its budget is returned here.
+            release(jobId);
         } else {
             queue.removeIf(queuedJob -> queuedJob.job().getId().equals(jobId));
-            try {
-                jobStore.remove(jobId);
-            } catch (IOException e) {
-                LOGGER.warn("Failed to remove cancelled job {} from store", jobId, e);
-            }
         }
+        try {
+            jobStore.remove(jobId);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to remove cancelled job {} from store", jobId, e);
+        }
+        schedule();
     }
 
     public void shutdown() {
         queue.clear();
         executor.shutdownNow();
+        scheduler.shutdown();
         try {
             executor.awaitTermination(5, TimeUnit.SECONDS);
         } catch (InterruptedException ignored) {
         }
-    }
-
-    private record QueuedJob(RenderJob job, int priority, CompletableFuture<Void> future) { }
-
-    private static class SimpleTask implements RenderTask {
-        private final UUID id = UUID.randomUUID();
-        private final String name;
-        private final Duration duration;
-        private final List<RenderTask> dependencies = new ArrayList<>();
-
-        SimpleTask(String name, Duration duration, RenderTask... deps) {
-            this.name = name;
-            this.duration = duration;
-            if (deps != null) {
-                dependencies.addAll(List.of(deps));
-            }
-        }
-
-        @Override
-        public UUID getId() {
-            return id;
-        }
-
-        @Override
-        public List<RenderTask> dependencies() {
-            return dependencies;
-        }
-
-        @Override
-        public void execute(RenderTaskContext context) throws Exception {
-            context.checkCancelled();
-            try {
-                Thread.sleep(duration.toMillis());
-            } catch (InterruptedException interrupted) {
-                Thread.currentThread().interrupt();
-                throw new CancellationException("Render task interrupted");
-            }
-        }
-
-        @Override
-        public Duration estimatedDuration() {
-            return duration;
-        }
-
-        @Override
-        public String toString() {
-            return name;
+        try {
+            jobStore.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close job store", e);
         }
     }
-}
 
+    private record QueuedJob(RenderJob job, int priority, Duration estimatedWork, CompletableFuture<Void> future) { }
+}
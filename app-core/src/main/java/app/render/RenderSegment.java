@@ -0,0 +1,42 @@
+package app.render;
+
+import app.domain.TrackType;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+public record RenderSegment(int index, Duration start, Duration end, List<Layer> layers) {
+    public RenderSegment {
+        Objects.requireNonNull(start, "start");
+        Objects.requireNonNull(end, "end");
+        if (end.compareTo(start) <= 0) {
+            throw new IllegalArgumentException("end must be after start");
+        }
+        layers = layers == null ? List.of() : List.copyOf(layers);
+    }
+
+    public Duration duration() {
+        return end.minus(start);
+    }
+
+    public Optional<Layer> videoLayer() {
+        return layers.stream().filter(layer -> layer.clip().trackType() == TrackType.VIDEO).findFirst();
+    }
+
+    public Optional<Layer> audioLayer() {
+        return layers.stream()
+                .filter(layer -> layer.clip().trackType() == TrackType.AUDIO)
+                .findFirst()
+                .or(this::videoLayer);
+    }
+
+    public record Layer(RenderClip clip, Path media, Duration offset) {
+        public Layer {
+            Objects.requireNonNull(clip, "clip");
+            Objects.requireNonNull(media, "media");
+            Objects.requireNonNull(offset, "offset");
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package app.render;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.UUID;
@@ -12,4 +13,22 @@ public interface RenderTask {
     void execute(RenderTaskContext context) throws Exception;
 
     Duration estimatedDuration();
+
+    default String contentHash() {
+        return null;
+    }
+
+    default String checkpointKey() {
+        return getId().toString();
+    }
+
+    default List<Path> outputs() {
+        return List.of();
+    }
+
+    // Intermediates under the render work directory are only ever replaced, never edited, so the cache may share
+    // their files; anything else (the user's export) gets its own copy.
+    default boolean intermediateOutputs() {
+        return false;
+    }
 }
@@ -5,15 +5,34 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.DoubleConsumer;
 
 public class RenderTaskContext {
+    private static final long PROGRESS_UNITS = 10_000;
+
     private final AtomicBoolean cancelled = new AtomicBoolean(false);
-    private final DoubleConsumer progressConsumer;
+    private final ProgressReporter progress;
+    private final Checkpoints checkpoints;
 
     public RenderTaskContext(DoubleConsumer progressConsumer) {
-        this.progressConsumer = progressConsumer != null ? progressConsumer : d -> { };
+        this(progressConsumer, Checkpoints.NONE);
+    }
+
+    public RenderTaskContext(DoubleConsumer progressConsumer, Checkpoints checkpoints) {
+        if (progressConsumer != null) {
+            this.progress = new ProgressReporter(snapshot -> progressConsumer.accept(snapshot.progress()));
+            this.progress.setTotal(PROGRESS_UNITS);
+        } else {
+            this.progress = null;
+        }
+        this.checkpoints = checkpoints != null ? checkpoints : Checkpoints.NONE;
     }
 
-    public void reportProgress(double progress) {
-        progressConsumer.accept(progress);
+    public Checkpoints checkpoints() {
+        return checkpoints;
+    }
+
+    public void reportProgress(double fraction) {
+        if (progress != null) {
+            progress.update(Math.round(Math.max(0.0, Math.min(1.0, fraction)) * PROGRESS_UNITS));
+        }
     }
 
     public void cancel() {
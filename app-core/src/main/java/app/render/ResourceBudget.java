@@ -0,0 +1,22 @@
+package app.render;
+
+public record ResourceBudget(int threads, long memoryBytes, long diskBytesPerSecond) {
+    private static final long DEFAULT_DISK_BYTES_PER_SECOND = 400L * 1024 * 1024;
+    private static final double HEAP_SHARE = 0.75;
+
+    public ResourceBudget {
+        if (threads <= 0 || memoryBytes <= 0 || diskBytesPerSecond <= 0) {
+            throw new IllegalArgumentException("resource budget must be positive");
+        }
+    }
+
+    public static ResourceBudget detect() {
+        Runtime runtime = Runtime.getRuntime();
+        return new ResourceBudget(runtime.availableProcessors() * 2, (long) (runtime.maxMemory() * HEAP_SHARE),
+                DEFAULT_DISK_BYTES_PER_SECOND);
+    }
+
+    public static ResourceBudget unlimited() {
+        return new ResourceBudget(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,42 @@
+package app.render;
+
+public record ResourceCost(int threads, long memoryBytes, long diskBytesPerSecond) {
+    public static final ResourceCost ZERO = new ResourceCost(0, 0, 0);
+
+    // Frames held at once by a single task: decoder output, the Java2D copy, effect scratch and encoder queue.
+    private static final int FRAMES_IN_FLIGHT = 8;
+    private static final long TASK_OVERHEAD_BYTES = 64L * 1024 * 1024;
+    // Intermediates are MJPEG at high quality, roughly a third of a byte per pixel.
+    private static final double INTERMEDIATE_BYTES_PER_PIXEL = 0.35;
+
+    public ResourceCost {
+        if (threads < 0 || memoryBytes < 0 || diskBytesPerSecond < 0) {
+            throw new IllegalArgumentException("resource cost must not be negative");
+        }
+    }
+
+    public static ResourceCost of(RenderPreset preset, int parallelism) {
+        long frameBytes = (long) preset.width() * preset.height() * 4;
+        long pixelRate = (long) preset.width() * preset.height() * preset.frameRate();
+        long taskMemory = FRAMES_IN_FLIGHT * frameBytes + TASK_OVERHEAD_BYTES;
+        // Each task reads and writes one intermediate stream; the encoder also writes the final bitstream.
+        long taskDisk = Math.round(2 * pixelRate * INTERMEDIATE_BYTES_PER_PIXEL);
+        long outputDisk = (preset.videoBitrate() + preset.audioBitrate()) / 8L;
+        return new ResourceCost(parallelism, parallelism * taskMemory, parallelism * taskDisk + outputDisk);
+    }
+
+    public ResourceCost plus(ResourceCost other) {
+        return new ResourceCost(threads + other.threads, memoryBytes + other.memoryBytes,
+                diskBytesPerSecond + other.diskBytesPerSecond);
+    }
+
+    public ResourceCost minus(ResourceCost other) {
+        return new ResourceCost(Math.max(0, threads - other.threads), Math.max(0, memoryBytes - other.memoryBytes),
+                Math.max(0, diskBytesPerSecond - other.diskBytesPerSecond));
+    }
+
+    public boolean fitsWithin(ResourceBudget budget) {
+        return threads <= budget.threads() && memoryBytes <= budget.memoryBytes()
+                && diskBytesPerSecond <= budget.diskBytesPerSecond();
+    }
+}
@@ -0,0 +1,64 @@
+package app.render;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+final class SegmentEffectsTask extends AbstractRenderTask {
+    private final RenderBackend backend;
+    private final RenderSegment segment;
+    private final RenderPreset preset;
+    private final Path output;
+
+    SegmentEffectsTask(RenderBackend backend, RenderSegment segment, RenderPreset preset, Path output,
+                       Duration estimate, List<DecodeClipTask> decodes) {
+        super("effects[segment-" + segment.index() + "]", estimate, decodes);
+        this.backend = Objects.requireNonNull(backend, "backend");
+        this.segment = segment;
+        this.preset = preset;
+        this.output = output;
+    }
+
+    RenderSegment segment() {
+        return segment;
+    }
+
+    Path output() {
+        return output;
+    }
+
+    @Override
+    String computeContentHash() {
+        String backendKey = backend.cacheKey();
+        if (backendKey == null) {
+            return null;
+        }
+        StringBuilder layers = new StringBuilder();
+        for (int i = 0; i < segment.layers().size(); i++) {
+            layers.append(dependencies().get(i).contentHash()).append('@').append(segment.layers().get(i).offset()).append(';');
+        }
+        return fingerprint("effects", backendKey, segment.duration(), layers, preset.name());
+    }
+
+    @Override
+    public String checkpointKey() {
+        return checkpointKey("effects", output.getFileName());
+    }
+
+    @Override
+    public List<Path> outputs() {
+        return List.of(output);
+    }
+
+    @Override
+    public boolean intermediateOutputs() {
+        return true;
+    }
+
+    @Override
+    public void execute(RenderTaskContext context) throws Exception {
+        context.checkCancelled();
+        backend.applyEffects(segment, preset, output, context);
+    }
+}
@@ -0,0 +1,10 @@
+package app.render;
+
+import app.timeline.Timeline;
+import java.io.IOException;
+import java.nio.file.Path;
+
+@FunctionalInterface
+public interface TimelineResolver {
+    Timeline resolve(Path projectFile) throws IOException;
+}
@@ -0,0 +1,178 @@
+package app.render.cache;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RenderCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenderCache.class);
+
+    private final Path root;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public RenderCache(Path root, long maxBytes) throws IOException {
+        this.root = Objects.requireNonNull(root, "root");
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be > 0");
+        }
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+        load();
+    }
+
+    public synchronized boolean contains(String hash) {
+        return entries.containsKey(hash);
+    }
+
+    public synchronized long sizeBytes() {
+        return totalBytes;
+    }
+
+    public boolean restore(String hash, List<Path> outputs) throws IOException {
+        return restore(hash, outputs, false);
+    }
+
+    public boolean restore(String hash, List<Path> outputs, boolean link) throws IOException {
+        Path entry;
+        synchronized (this) {
+            if (entries.get(hash) == null) {
+                return false;
+            }
+            entry = entryDirectory(hash);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        try {
+            for (int i = 0; i < outputs.size(); i++) {
+                Path output = outputs.get(i);
+                if (output.getParent() != null) {
+                    Files.createDirectories(output.getParent());
+                }
+                Files.deleteIfExists(output);
+                transfer(entry.resolve(Integer.toString(i)), output, link);
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Dropping unreadable render cache entry {}", hash, e);
+            invalidate(hash);
+            return false;
+        }
+    }
+
+    public void store(String hash, List<Path> outputs) throws IOException {
+        store(hash, outputs, false);
+    }
+
+    public void store(String hash, List<Path> outputs, boolean link) throws IOException {
+        synchronized (this) {
+            if (entries.containsKey(hash)) {
+                return;
+            }
+        }
+        Path temp = Files.createTempDirectory(root, ".incoming-");
+        long size = 0;
+        try {
+            for (int i = 0; i < outputs.size(); i++) {
+                Path copy = temp.resolve(Integer.toString(i));
+                transfer(outputs.get(i), copy, link);
+                size += Files.size(copy);
+            }
+            if (size > maxBytes) {
+                return;
+            }
+            synchronized (this) {
+                if (entries.containsKey(hash)) {
+                    return;
+                }
+                Path entry = entryDirectory(hash);
+                Files.createDirectories(entry.getParent());
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+                entries.put(hash, size);
+                totalBytes += size;
+                evict();
+            }
+        } finally {
+            FileUtils.deleteQuietly(temp.toFile());
+        }
+    }
+
+    public synchronized void invalidate(String hash) {
+        Long size = entries.remove(hash);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        FileUtils.deleteQuietly(entryDirectory(hash).toFile());
+    }
+
+    // Linked entries share one file with the output where the file system allows it, so caching an intermediate costs
+    // no extra I/O. Only callers whose outputs are never written in place may link; other outputs are copied.
+    private static void transfer(Path source, Path target, boolean link) throws IOException {
+        if (link) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.debug("Cannot link {}, copying it instead", source, e);
+            }
+        }
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            FileUtils.deleteQuietly(entryDirectory(eldest.getKey()).toFile());
+            LOGGER.debug("Evicted render cache entry {} ({} bytes)", eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private Path entryDirectory(String hash) {
+        return root.resolve(hash.substring(0, Math.min(2, hash.length()))).resolve(hash);
+    }
+
+    private void load() throws IOException {
+        record Found(String hash, long size, FileTime lastUsed) { }
+        List<Found> found = new ArrayList<>();
+        try (Stream<Path> shards = Files.list(root)) {
+            for (Path shard : shards.toList()) {
+                if (shard.getFileName().toString().startsWith(".incoming-")) {
+                    FileUtils.deleteQuietly(shard.toFile());
+                    continue;
+                }
+                if (!Files.isDirectory(shard)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> hashes = Files.newDirectoryStream(shard)) {
+                    for (Path entry : hashes) {
+                        found.add(new Found(entry.getFileName().toString(), FileUtils.sizeOfDirectory(entry.toFile()),
+                                Files.getLastModifiedTime(entry)));
+                    }
+                }
+            }
+        }
+        found.sort(Comparator.comparing(Found::lastUsed));
+        for (Found entry : found) {
+            entries.put(entry.hash(), entry.size());
+            totalBytes += entry.size();
+        }
+        evict();
+    }
+}
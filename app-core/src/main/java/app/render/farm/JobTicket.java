@@ -0,0 +1,24 @@
+package app.render.farm;
+
+import app.render.RenderJob;
+import app.render.RenderPreset;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+public record JobTicket(UUID id, Path projectFile, Path output, RenderPreset preset, Duration start, Duration end,
+                        Map<String, Object> metadata, int priority, int attempt) {
+    public static JobTicket of(RenderJob job, int priority) {
+        return new JobTicket(job.getId(), job.getProjectFile(), job.getOutput(), job.getPreset(), job.getStart(),
+                job.getEnd(), job.getMetadata(), priority, 0);
+    }
+
+    public RenderJob toJob() {
+        return new RenderJob(id, projectFile, output, preset, start, end, metadata);
+    }
+
+    JobTicket nextAttempt() {
+        return new JobTicket(id, projectFile, output, preset, start, end, metadata, priority, attempt + 1);
+    }
+}
@@ -0,0 +1,153 @@
+package app.render.farm;
+
+import app.render.RenderJob;
+import app.render.storage.JobStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RenderFarmCoordinator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenderFarmCoordinator.class);
+
+    private final JobStore jobStore;
+    private final RenderSpool spool;
+    private final Duration leaseTimeout;
+    private final int maxAttempts;
+    private final ConcurrentHashMap<UUID, CompletableFuture<Void>> completions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "montage-farm-coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RenderFarmCoordinator(Path jobStorePath, Path spoolDirectory, Duration leaseTimeout, int maxAttempts) throws IOException {
+        this.jobStore = new JobStore(jobStorePath);
+        this.spool = new RenderSpool(spoolDirectory);
+        this.leaseTimeout = Objects.requireNonNull(leaseTimeout, "leaseTimeout");
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be > 0");
+        }
+        this.maxAttempts = maxAttempts;
+        for (RenderJob job : jobStore.pending()) {
+            completions.put(job.getId(), new CompletableFuture<>());
+            if (!spool.contains(job.getId())) {
+                spool.offer(JobTicket.of(job, 0));
+            }
+        }
+        long period = Math.max(20, leaseTimeout.toMillis() / 4);
+        monitor.scheduleWithFixedDelay(this::poll, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Void> enqueue(RenderJob job, int priority) throws IOException {
+        jobStore.save(job);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        completions.put(job.getId(), future);
+        spool.offer(JobTicket.of(job, priority));
+        return future;
+    }
+
+    public CompletableFuture<Void> completion(UUID jobId) {
+        return completions.get(jobId);
+    }
+
+    public void cancel(UUID jobId) {
+        try {
+            spool.cancel(jobId);
+            jobStore.remove(jobId);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cancel farm job {}", jobId, e);
+        }
+        CompletableFuture<Void> future = completions.remove(jobId);
+        if (future != null) {
+            future.completeExceptionally(new CancellationException("Render job cancelled"));
+        }
+    }
+
+    public void shutdown() {
+        monitor.shutdownNow();
+        try {
+            monitor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            jobStore.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close job store", e);
+        }
+    }
+
+    void poll() {
+        try {
+            collectResults();
+            expireLeases();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Render farm poll failed", e);
+        }
+    }
+
+    private void collectResults() throws IOException {
+        for (RenderSpool.FarmResult result : spool.drainResults()) {
+            spool.clearCancel(result.id());
+            CompletableFuture<Void> future = completions.remove(result.id());
+            if (result.error() == null) {
+                jobStore.remove(result.id());
+                LOGGER.info("Render job {} completed on worker {}", result.id(), result.workerId());
+                if (future != null) {
+                    future.complete(null);
+                }
+            } else {
+                LOGGER.error("Render job {} failed on worker {}: {}", result.id(), result.workerId(), result.error());
+                if (future != null) {
+                    future.completeExceptionally(new IOException("Render failed on worker " + result.workerId() + ": " + result.error()));
+                }
+            }
+        }
+    }
+
+    private void expireLeases() throws IOException {
+        long now = System.currentTimeMillis();
+        for (Path lease : spool.leases()) {
+            long age;
+            try {
+                age = now - Files.getLastModifiedTime(lease).toMillis();
+            } catch (IOException gone) {
+                continue;
+            }
+            if (age < leaseTimeout.toMillis()) {
+                continue;
+            }
+            Optional<JobTicket> ticket = spool.takeBack(lease);
+            if (ticket.isEmpty()) {
+                continue;
+            }
+            UUID jobId = ticket.get().id();
+            if (spool.isCancelled(jobId)) {
+                spool.clearCancel(jobId);
+                continue;
+            }
+            if (ticket.get().attempt() + 1 >= maxAttempts) {
+                LOGGER.error("Render job {} lost its worker {} times, giving up", jobId, ticket.get().attempt() + 1);
+                CompletableFuture<Void> future = completions.remove(jobId);
+                if (future != null) {
+                    future.completeExceptionally(new IOException("Render job " + jobId + " exceeded " + maxAttempts + " attempts"));
+                }
+                continue;
+            }
+            LOGGER.warn("Lease {} expired after {} ms, requeueing", lease.getFileName(), age);
+            spool.offer(ticket.get().nextAttempt());
+        }
+    }
+}
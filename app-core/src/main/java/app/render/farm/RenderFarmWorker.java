@@ -0,0 +1,133 @@
+package app.render.farm;
+
+import app.render.RenderBackend;
+import app.render.RenderQueue;
+import app.render.TimelineResolver;
+import app.render.cache.RenderCache;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RenderFarmWorker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenderFarmWorker.class);
+    private static final long CACHE_BYTES = 20L * 1024 * 1024 * 1024;
+
+    private final RenderSpool spool;
+    private final String workerId;
+    private final int slots;
+    private final Path runDirectory;
+    private final RenderQueue queue;
+    private final Map<UUID, RenderSpool.Lease> active = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService loop;
+
+    public RenderFarmWorker(Path spoolDirectory, String workerId, int slots, TimelineResolver timelineResolver,
+                            RenderBackend backend, Duration heartbeatInterval) throws IOException {
+        this.spool = new RenderSpool(spoolDirectory);
+        this.workerId = Objects.requireNonNull(workerId, "workerId");
+        if (workerId.isBlank() || workerId.contains("@") || workerId.contains("/")) {
+            throw new IllegalArgumentException("Invalid worker id: " + workerId);
+        }
+        if (slots <= 0) {
+            throw new IllegalArgumentException("slots must be > 0");
+        }
+        this.slots = slots;
+        // Jobs only belong to this worker while it holds their lease, so its local queue never outlives the process.
+        Path workerDirectory = spoolDirectory.resolve("workers").resolve(workerId);
+        this.runDirectory = workerDirectory.resolve("run-" + UUID.randomUUID());
+        this.queue = new RenderQueue(runDirectory.resolve("jobs.json"), slots,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / slots), timelineResolver, backend,
+                new RenderCache(workerDirectory.resolve("render-cache"), CACHE_BYTES));
+        this.loop = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "montage-farm-worker-" + workerId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(10, heartbeatInterval.toMillis());
+        loop.scheduleWithFixedDelay(this::tick, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    public String workerId() {
+        return workerId;
+    }
+
+    public int activeJobs() {
+        return active.size();
+    }
+
+    public void shutdown() {
+        loop.shutdownNow();
+        try {
+            loop.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        for (RenderSpool.Lease lease : active.values()) {
+            try {
+                spool.release(lease);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to release lease {}", lease.path().getFileName(), e);
+            }
+        }
+        queue.shutdown();
+        FileUtils.deleteQuietly(runDirectory.toFile());
+    }
+
+    void tick() {
+        try {
+            heartbeat();
+            claim();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Worker {} poll failed", workerId, e);
+        }
+    }
+
+    private void heartbeat() {
+        for (RenderSpool.Lease lease : active.values()) {
+            UUID jobId = lease.ticket().id();
+            if (spool.isCancelled(jobId)) {
+                LOGGER.info("Worker {} cancelling job {}", workerId, jobId);
+                queue.cancel(jobId);
+            } else if (!spool.heartbeat(lease)) {
+                LOGGER.warn("Worker {} lost lease on job {}", workerId, jobId);
+                active.remove(jobId);
+                queue.cancel(jobId);
+            }
+        }
+    }
+
+    private void claim() throws IOException {
+        for (Path queued : spool.queued()) {
+            if (active.size() >= slots) {
+                return;
+            }
+            Optional<RenderSpool.Lease> claimed = spool.claim(queued, workerId);
+            if (claimed.isEmpty()) {
+                continue;
+            }
+            RenderSpool.Lease lease = claimed.get();
+            UUID jobId = lease.ticket().id();
+            active.put(jobId, lease);
+            LOGGER.info("Worker {} leased job {} (attempt {})", workerId, jobId, lease.ticket().attempt() + 1);
+            queue.enqueue(lease.ticket().toJob(), lease.ticket().priority()).whenComplete((ignored, error) -> {
+                if (active.remove(jobId, lease)) {
+                    try {
+                        spool.complete(lease, error == null ? null : String.valueOf(error.getMessage()));
+                    } catch (IOException e) {
+                        LOGGER.warn("Worker {} failed to publish result of job {}", workerId, jobId, e);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package app.render.farm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// Directory layout shared by the coordinator and its workers. Every state change is a single atomic rename, so
+// two workers can never hold the same lease and a half-written ticket is never visible.
+public final class RenderSpool {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private final Path root;
+    private final Path queue;
+    private final Path leases;
+    private final Path results;
+    private final Path cancels;
+
+    public RenderSpool(Path root) throws IOException {
+        this.root = Objects.requireNonNull(root, "root");
+        this.queue = Files.createDirectories(root.resolve("queue"));
+        this.leases = Files.createDirectories(root.resolve("leases"));
+        this.results = Files.createDirectories(root.resolve("results"));
+        this.cancels = Files.createDirectories(root.resolve("cancels"));
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public void offer(JobTicket ticket) throws IOException {
+        String name = String.format("%010d-%s.json", (long) Integer.MAX_VALUE - ticket.priority(), ticket.id());
+        publish(OBJECT_MAPPER.writeValueAsBytes(ticket), queue.resolve(name));
+    }
+
+    public List<Path> queued() throws IOException {
+        return list(queue);
+    }
+
+    public Optional<Lease> claim(Path queued, String workerId) throws IOException {
+        UUID jobId = jobIdOf(queued);
+        Path lease = leases.resolve(jobId + "@" + workerId + ".json");
+        try {
+            Files.move(queued, lease, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException taken) {
+            return Optional.empty();
+        }
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis()));
+        return Optional.of(new Lease(OBJECT_MAPPER.readValue(lease.toFile(), JobTicket.class), workerId, lease));
+    }
+
+    public boolean heartbeat(Lease lease) {
+        try {
+            Files.setLastModifiedTime(lease.path(), FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException lost) {
+            return false;
+        }
+    }
+
+    public void complete(Lease lease, String error) throws IOException {
+        if (!Files.exists(lease.path())) {
+            return;
+        }
+        publish(OBJECT_MAPPER.writeValueAsBytes(new FarmResult(lease.ticket().id(), lease.workerId(), error)),
+                results.resolve(lease.ticket().id() + ".json"));
+        Files.deleteIfExists(lease.path());
+    }
+
+    public void release(Lease lease) throws IOException {
+        Optional<JobTicket> ticket = takeBack(lease.path());
+        if (ticket.isPresent()) {
+            offer(ticket.get());
+        }
+    }
+
+    public List<Path> leases() throws IOException {
+        return list(leases);
+    }
+
+    // Moves a lease out of the worker's reach; its next heartbeat fails and it stops working on the job.
+    public Optional<JobTicket> takeBack(Path lease) throws IOException {
+        Path taken = root.resolve(".taken-" + lease.getFileName());
+        try {
+            Files.move(lease, taken, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException gone) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(OBJECT_MAPPER.readValue(taken.toFile(), JobTicket.class));
+        } finally {
+            Files.deleteIfExists(taken);
+        }
+    }
+
+    public List<FarmResult> drainResults() throws IOException {
+        List<FarmResult> drained = new ArrayList<>();
+        for (Path result : list(results)) {
+            drained.add(OBJECT_MAPPER.readValue(result.toFile(), FarmResult.class));
+            Files.deleteIfExists(result);
+        }
+        return drained;
+    }
+
+    public void cancel(UUID jobId) throws IOException {
+        Files.write(cancels.resolve(jobId.toString()), new byte[0]);
+        for (Path queued : queued()) {
+            if (jobIdOf(queued).equals(jobId)) {
+                Files.deleteIfExists(queued);
+            }
+        }
+    }
+
+    public boolean isCancelled(UUID jobId) {
+        return Files.exists(cancels.resolve(jobId.toString()));
+    }
+
+    public void clearCancel(UUID jobId) throws IOException {
+        Files.deleteIfExists(cancels.resolve(jobId.toString()));
+    }
+
+    public boolean contains(UUID jobId) throws IOException {
+        for (Path path : list(queue)) {
+            if (jobIdOf(path).equals(jobId)) {
+                return true;
+            }
+        }
+        for (Path path : list(leases)) {
+            if (jobIdOf(path).equals(jobId)) {
+                return true;
+            }
+        }
+        return Files.exists(results.resolve(jobId + ".json"));
+    }
+
+    public static UUID jobIdOf(Path spoolFile) {
+        String name = spoolFile.getFileName().toString();
+        name = name.substring(0, name.length() - ".json".length());
+        int workerSeparator = name.indexOf('@');
+        if (workerSeparator >= 0) {
+            return UUID.fromString(name.substring(0, workerSeparator));
+        }
+        return UUID.fromString(name.substring(name.indexOf('-') + 1));
+    }
+
+    private void publish(byte[] content, Path target) throws IOException {
+        Path temp = Files.createTempFile(root, ".publish-", ".json");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".json")).sorted().toList();
+        }
+    }
+
+    public record Lease(JobTicket ticket, String workerId, Path path) { }
+
+    public record FarmResult(UUID id, String workerId, String error) { }
+}
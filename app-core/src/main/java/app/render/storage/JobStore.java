@@ -1,55 +1,309 @@
 package app.render.storage;
 
+import app.render.Checkpoints;
 import app.render.RenderJob;
+import app.render.RenderPreset;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class JobStore implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobStore.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private static final int MIN_COMPACTION_ENTRIES = 1_024;
 
-public class JobStore {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().registerModule(new JavaTimeModule());
     private final Path storePath;
+    private final Path journalPath;
     private final ConcurrentMap<UUID, RenderJob> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, ConcurrentMap<String, TaskCheckpoint>> checkpoints = new ConcurrentHashMap<>();
+    // Only the writer thread touches the journal channel once the constructor returns. Callers never do file I/O
+    // themselves, so interrupting a render thread mid-checkpoint cannot close the channel under the whole store.
+    private final BlockingQueue<Write> writes = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private FileChannel journal;
+    private long journalEntries;
 
     public JobStore(Path storePath) throws IOException {
         this.storePath = storePath;
+        this.journalPath = storePath.resolveSibling(storePath.getFileName() + ".journal");
         if (storePath.getParent() != null) {
             Files.createDirectories(storePath.getParent());
         }
         load();
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (journalEntries > 0) {
+            writeSnapshot();
+        }
+        writer = new Thread(this::runWriter, "montage-job-journal");
+        writer.setDaemon(true);
+        writer.start();
     }
 
     public void save(RenderJob job) throws IOException {
         jobs.put(job.getId(), job);
-        persist();
+        append(JournalEntry.put(job));
     }
 
     public void remove(UUID jobId) throws IOException {
-        jobs.remove(jobId);
-        persist();
+        checkpoints.remove(jobId);
+        if (jobs.remove(jobId) != null) {
+            append(JournalEntry.remove(jobId));
+        }
     }
 
     public List<RenderJob> pending() {
         return new ArrayList<>(jobs.values());
     }
 
+    public void checkpoint(UUID jobId, String key, List<Path> outputs) throws IOException {
+        if (!jobs.containsKey(jobId)) {
+            return;
+        }
+        TaskCheckpoint checkpoint = TaskCheckpoint.capture(outputs);
+        checkpoints.computeIfAbsent(jobId, id -> new ConcurrentHashMap<>()).put(key, checkpoint);
+        append(JournalEntry.checkpoint(jobId, key, checkpoint));
+    }
+
+    public Map<String, TaskCheckpoint> checkpoints(UUID jobId) {
+        return Map.copyOf(checkpoints.getOrDefault(jobId, new ConcurrentHashMap<>()));
+    }
+
+    public Checkpoints checkpointsFor(UUID jobId) {
+        return new Checkpoints() {
+            @Override
+            public boolean isComplete(String key) {
+                TaskCheckpoint checkpoint = checkpoints.getOrDefault(jobId, new ConcurrentHashMap<>()).get(key);
+                return checkpoint != null && checkpoint.isValid();
+            }
+
+            @Override
+            public void record(String key, List<Path> outputs) throws IOException {
+                checkpoint(jobId, key, outputs);
+            }
+        };
+    }
+
+    public void compact() throws IOException {
+        submit(new Write(WriteKind.COMPACT, null));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            submit(new Write(WriteKind.CLOSE, null));
+        }
+    }
+
+    private void append(JournalEntry entry) throws IOException {
+        byte[] line = (OBJECT_MAPPER.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+        submit(new Write(WriteKind.APPEND, line));
+    }
+
+    // Waits without reacting to interrupts: the entry is queued either way, so returning early would only report a
+    // write as failed that still happens. The caller's interrupt status is left set for it to act on.
+    private void submit(Write write) throws IOException {
+        if (closed) {
+            throw new IOException("Job store " + storePath + " is closed");
+        }
+        writes.add(write);
+        if (closed) {
+            failQueued();
+        }
+        try {
+            write.done().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+
+    // Group commit: everything queued while the previous batch was syncing is written and covered by one force().
+    private void runWriter() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            writes.drainTo(batch);
+            boolean compactNow = false;
+            boolean closeNow = false;
+            try {
+                for (Write write : batch) {
+                    if (write.kind() == WriteKind.APPEND) {
+                        writeFully(journal, ByteBuffer.wrap(write.line()));
+                        journalEntries++;
+                    } else if (write.kind() == WriteKind.COMPACT) {
+                        compactNow = true;
+                    } else {
+                        closeNow = true;
+                    }
+                }
+                journal.force(false);
+                if (compactNow || journalEntries >= MIN_COMPACTION_ENTRIES && journalEntries >= liveRecords() * 2) {
+                    writeSnapshot();
+                }
+                if (closeNow) {
+                    closed = true;
+                    journal.close();
+                }
+                batch.forEach(write -> write.done().complete(null));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to write job journal {}", journalPath, e);
+                batch.forEach(write -> write.done().completeExceptionally(e));
+            }
+            batch.clear();
+            if (closed) {
+                failQueued();
+                return;
+            }
+        }
+    }
+
+    private void failQueued() {
+        List<Write> rest = new ArrayList<>();
+        writes.drainTo(rest);
+        rest.forEach(write -> write.done().completeExceptionally(new IOException("Job store " + storePath + " is closed")));
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path temp = storePath.resolveSibling(storePath.getFileName() + ".tmp");
+        byte[] snapshot = OBJECT_MAPPER.writeValueAsBytes(jobs.values().stream()
+                .map(job -> JobRecord.of(job, checkpoints.get(job.getId()))).toList());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(snapshot));
+            channel.force(true);
+        }
+        Files.move(temp, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.truncate(0);
+        journal.force(true);
+        journalEntries = 0;
+    }
+
     private void load() throws IOException {
-        if (!Files.exists(storePath) || Files.size(storePath) == 0) {
+        if (Files.exists(storePath) && Files.size(storePath) > 0) {
+            JobRecord[] records = OBJECT_MAPPER.readValue(storePath.toFile(), JobRecord[].class);
+            for (JobRecord record : records) {
+                jobs.put(record.id(), record.toJob());
+                if (record.checkpoints() != null && !record.checkpoints().isEmpty()) {
+                    checkpoints.put(record.id(), new ConcurrentHashMap<>(record.checkpoints()));
+                }
+            }
+        }
+        if (!Files.exists(journalPath)) {
             return;
         }
-        RenderJob[] array = OBJECT_MAPPER.readValue(storePath.toFile(), RenderJob[].class);
-        for (RenderJob job : array) {
-            jobs.put(job.getId(), job);
+        long validBytes = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(journalPath), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JournalEntry entry;
+                try {
+                    entry = OBJECT_MAPPER.readValue(line, JournalEntry.class);
+                } catch (IOException torn) {
+                    LOGGER.warn("Ignoring torn journal entry in {} at byte {}", journalPath, validBytes);
+                    break;
+                }
+                apply(entry);
+                journalEntries++;
+                validBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+        }
+        if (validBytes < Files.size(journalPath)) {
+            try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                channel.truncate(Math.min(validBytes, channel.size()));
+                channel.force(true);
+            }
+        }
+    }
+
+    private void apply(JournalEntry entry) {
+        switch (entry.op()) {
+            case "PUT" -> jobs.put(entry.id(), entry.job().toJob());
+            case "REMOVE" -> {
+                jobs.remove(entry.id());
+                checkpoints.remove(entry.id());
+            }
+            case "CHECKPOINT" -> {
+                if (jobs.containsKey(entry.id())) {
+                    checkpoints.computeIfAbsent(entry.id(), id -> new ConcurrentHashMap<>()).put(entry.key(), entry.checkpoint());
+                }
+            }
+            default -> LOGGER.warn("Unknown journal operation {}", entry.op());
+        }
+    }
+
+    private long liveRecords() {
+        return jobs.size() + checkpoints.values().stream().mapToLong(Map::size).sum();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    record JobRecord(UUID id, Path projectFile, Path output, RenderPreset preset, Duration start, Duration end,
+                     Map<String, Object> metadata, Map<String, TaskCheckpoint> checkpoints) {
+        static JobRecord of(RenderJob job, Map<String, TaskCheckpoint> checkpoints) {
+            return new JobRecord(job.getId(), job.getProjectFile(), job.getOutput(), job.getPreset(), job.getStart(),
+                    job.getEnd(), job.getMetadata(), checkpoints);
+        }
+
+        RenderJob toJob() {
+            return new RenderJob(id, projectFile, output, preset, start, end, metadata);
+        }
+    }
+
+    private enum WriteKind { APPEND, COMPACT, CLOSE }
+
+    private record Write(WriteKind kind, byte[] line, CompletableFuture<Void> done) {
+        Write(WriteKind kind, byte[] line) {
+            this(kind, line, new CompletableFuture<>());
         }
     }
 
-    private void persist() throws IOException {
-        OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(storePath.toFile(), jobs.values());
+    record JournalEntry(String op, UUID id, JobRecord job, String key, TaskCheckpoint checkpoint) {
+        static JournalEntry put(RenderJob job) {
+            return new JournalEntry("PUT", job.getId(), JobRecord.of(job, null), null, null);
+        }
+
+        static JournalEntry remove(UUID id) {
+            return new JournalEntry("REMOVE", id, null, null, null);
+        }
+
+        static JournalEntry checkpoint(UUID id, String key, TaskCheckpoint checkpoint) {
+            return new JournalEntry("CHECKPOINT", id, null, key, checkpoint);
+        }
     }
 }
@@ -0,0 +1,39 @@
+package app.render.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public record TaskCheckpoint(List<OutputFile> outputs) {
+    public TaskCheckpoint {
+        outputs = List.copyOf(outputs);
+    }
+
+    public static TaskCheckpoint capture(List<Path> outputs) throws IOException {
+        List<OutputFile> files = new ArrayList<>();
+        for (Path output : outputs) {
+            files.add(new OutputFile(output.toAbsolutePath(), Files.size(output), Files.getLastModifiedTime(output).toMillis()));
+        }
+        return new TaskCheckpoint(files);
+    }
+
+    @JsonIgnore
+    public boolean isValid() {
+        for (OutputFile file : outputs) {
+            try {
+                if (Files.size(file.path()) != file.size()
+                        || Files.getLastModifiedTime(file.path()).toMillis() != file.lastModifiedMillis()) {
+                    return false;
+                }
+            } catch (IOException missing) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public record OutputFile(Path path, long size, long lastModifiedMillis) { }
+}
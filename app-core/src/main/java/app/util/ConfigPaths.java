@@ -5,6 +5,7 @@ import java.nio.file.Path;
 public final class ConfigPaths {
     private static final String DEFAULT_PROJECT_DIR = "MontageProjects";
     private static final String DEFAULT_MODEL_DIR = "MontageModels";
+    private static final String DEFAULT_CACHE_DIR = "MontageCache";
 
     private ConfigPaths() {
     }
@@ -16,4 +17,8 @@ public final class ConfigPaths {
     public static Path defaultModelRoot() {
         return Path.of(System.getProperty("user.home"), DEFAULT_MODEL_DIR);
     }
+
+    public static Path defaultCacheRoot() {
+        return Path.of(System.getProperty("user.home"), DEFAULT_CACHE_DIR);
+    }
 }
@@ -0,0 +1,71 @@
+package app.util;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// Remembers sources whose background work failed so callers stop retrying them on every repaint. A failure is
+// forgotten as soon as the source's identity changes; otherwise the source may be tried again after a delay that
+// doubles with each consecutive failure, up to a ceiling.
+public final class FailureBackoff {
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<Path, Failure> failures = new ConcurrentHashMap<>();
+
+    public FailureBackoff(Duration baseDelay, Duration maxDelay) {
+        this(baseDelay, maxDelay, System::currentTimeMillis);
+    }
+
+    FailureBackoff(Duration baseDelay, Duration maxDelay, LongSupplier clock) {
+        Objects.requireNonNull(baseDelay, "baseDelay");
+        Objects.requireNonNull(maxDelay, "maxDelay");
+        if (baseDelay.isNegative() || baseDelay.isZero()) {
+            throw new IllegalArgumentException("baseDelay must be > 0");
+        }
+        if (maxDelay.compareTo(baseDelay) < 0) {
+            throw new IllegalArgumentException("maxDelay must not be shorter than baseDelay");
+        }
+        this.baseDelayMillis = baseDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+        this.clock = Objects.requireNonNull(clock, "clock");
+    }
+
+    public boolean shouldAttempt(Path source, String identity) {
+        Failure failure = failures.get(key(source));
+        if (failure == null) {
+            return true;
+        }
+        if (!failure.identity().equals(identity)) {
+            failures.remove(key(source), failure);
+            return true;
+        }
+        return clock.getAsLong() >= failure.retryAtMillis();
+    }
+
+    public void failed(Path source, String identity) {
+        Objects.requireNonNull(identity, "identity");
+        long now = clock.getAsLong();
+        failures.compute(key(source), (path, previous) -> {
+            int attempts = previous != null && previous.identity().equals(identity) ? previous.attempts() + 1 : 1;
+            return new Failure(identity, attempts, now + delayMillis(attempts));
+        });
+    }
+
+    public void succeeded(Path source) {
+        failures.remove(key(source));
+    }
+
+    private long delayMillis(int attempts) {
+        int doublings = Math.min(attempts - 1, 30);
+        return Math.min(maxDelayMillis, baseDelayMillis << doublings);
+    }
+
+    private static Path key(Path source) {
+        return Objects.requireNonNull(source, "source").toAbsolutePath().normalize();
+    }
+
+    private record Failure(String identity, int attempts, long retryAtMillis) { }
+}
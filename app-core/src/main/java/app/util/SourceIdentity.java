@@ -0,0 +1,27 @@
+package app.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// Names a media file by its absolute path, size and mtime, so anything derived from it (proxies, peak files,
+// filmstrip atlases) is looked up afresh once the file is replaced or edited.
+public final class SourceIdentity {
+    private SourceIdentity() {
+    }
+
+    public static String of(Path source) throws IOException {
+        Path path = source.toAbsolutePath().normalize();
+        String raw = path + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(raw.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package app.render;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CriticalPathSchedulerTest {
+    @Test
+    void rankIsLongestEstimatedPathToSink() {
+        CriticalPathScheduler scheduler = new CriticalPathScheduler(1, new DurationEstimator());
+        try {
+            RenderDagExecutorTest.TestTask decode = task("decode", 1);
+            RenderDagExecutorTest.TestTask effects = task("effects", 2, decode);
+            RenderDagExecutorTest.TestTask side = task("side", 5);
+            RenderDagExecutorTest.TestTask encode = task("encode", 3, effects, side);
+            RenderDag dag = new RenderDag();
+            List.of(decode, effects, side, encode).forEach(dag::addTask);
+
+            Map<UUID, Duration> ranks = scheduler.ranks(dag);
+
+            assertEquals(Duration.ofSeconds(6), ranks.get(decode.getId()));
+            assertEquals(Duration.ofSeconds(8), ranks.get(side.getId()));
+            assertEquals(Duration.ofSeconds(8), scheduler.criticalPath(dag));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void dispatchesHighestRankFirst() throws Exception {
+        CriticalPathScheduler scheduler = new CriticalPathScheduler(1, new DurationEstimator());
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> order = new CopyOnWriteArrayList<>();
+            scheduler.submit(() -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }, Duration.ZERO);
+            scheduler.submit(() -> order.add("short"), Duration.ofSeconds(1));
+            Future<?> last = scheduler.submit(() -> order.add("long"), Duration.ofSeconds(30));
+            scheduler.submit(() -> order.add("medium"), Duration.ofSeconds(10));
+            release.countDown();
+            last.get(5, TimeUnit.SECONDS);
+            Thread.sleep(50);
+
+            assertEquals(List.of("long", "medium", "short"), order);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void measuredDurationsCorrectFutureEstimates() {
+        DurationEstimator estimator = new DurationEstimator();
+        RenderDagExecutorTest.TestTask task = task("decode", 2);
+
+        estimator.record(task, Duration.ofSeconds(4));
+        assertEquals(Duration.ofSeconds(4), estimator.estimate(task));
+
+        estimator.record(task, Duration.ofSeconds(2));
+        Duration corrected = estimator.estimate(task);
+        assertTrue(corrected.compareTo(Duration.ofSeconds(2)) > 0 && corrected.compareTo(Duration.ofSeconds(4)) < 0);
+    }
+
+    private static RenderDagExecutorTest.TestTask task(String name, int seconds, RenderTask... dependencies) {
+        return new RenderDagExecutorTest.TestTask(name, Duration.ofSeconds(seconds), context -> { }, dependencies);
+    }
+}
@@ -0,0 +1,40 @@
+package app.render;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressReporterTest {
+    @Test
+    void coalescesUpdatesAndDeliversFinalState() {
+        List<ProgressReporter.ProgressSnapshot> snapshots = new CopyOnWriteArrayList<>();
+        ProgressReporter reporter = new ProgressReporter(snapshots::add, Duration.ofMillis(50));
+        reporter.setTotal(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            reporter.increment(1);
+        }
+        reporter.flush();
+
+        assertTrue(snapshots.size() < 100, "delivered " + snapshots.size() + " snapshots");
+        ProgressReporter.ProgressSnapshot last = snapshots.get(snapshots.size() - 1);
+        assertEquals(1.0, last.progress());
+        assertEquals(100_000, last.completedUnits());
+        assertEquals(Duration.ZERO, last.eta());
+        assertTrue(last.unitsPerSecond() > 0);
+    }
+
+    @Test
+    void listenersRunOffTheReportingThread() {
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        ProgressReporter reporter = new ProgressReporter(snapshot -> threads.add(Thread.currentThread()));
+        reporter.increment(1);
+        reporter.flush();
+
+        assertEquals(1, threads.size());
+        assertNotEquals(Thread.currentThread(), threads.get(0));
+    }
+}
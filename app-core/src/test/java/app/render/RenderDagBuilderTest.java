@@ -0,0 +1,65 @@
+package app.render;
+
+import app.domain.TrackType;
+import app.timeline.Timeline;
+import app.timeline.TimelineClip;
+import app.timeline.TimelineTrack;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderDagBuilderTest {
+    private final RenderDagBuilder builder = new RenderDagBuilder(new RenderQueueTest.RecordingBackend(Duration.ZERO), Path.of("work"));
+
+    @Test
+    void buildsDecodePerClipEffectsPerSegmentAndSingleEncode() {
+        Timeline timeline = RenderQueueTest.sampleTimeline();
+        TimelineTrack music = new TimelineTrack(TrackType.AUDIO);
+        music.addClip(new TimelineClip(Path.of("music.wav"), Duration.ZERO, Duration.ofSeconds(12)));
+        timeline.addTrack(music);
+        RenderJob job = new RenderJob(Path.of("demo.project"), Path.of("out.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+
+        List<RenderTask> order = builder.build(job, timeline).topologicalOrder();
+
+        List<DecodeClipTask> decodes = order.stream().filter(DecodeClipTask.class::isInstance).map(DecodeClipTask.class::cast).toList();
+        List<SegmentEffectsTask> segments = order.stream().filter(SegmentEffectsTask.class::isInstance).map(SegmentEffectsTask.class::cast).toList();
+        assertEquals(3, decodes.size());
+        assertEquals(3, segments.size());
+        assertTrue(order.get(order.size() - 1) instanceof EncodeTask);
+        assertEquals(3, order.get(order.size() - 1).dependencies().size());
+
+        RenderSegment gap = segments.stream().map(SegmentEffectsTask::segment)
+                .filter(segment -> segment.start().equals(Duration.ofSeconds(5)))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(gap.videoLayer().isEmpty());
+        assertEquals(TrackType.AUDIO, gap.audioLayer().orElseThrow().clip().trackType());
+        assertEquals(Duration.ofSeconds(5), gap.audioLayer().orElseThrow().offset());
+    }
+
+    @Test
+    void clipsAreTrimmedToRenderRange() {
+        RenderJob job = new RenderJob(Path.of("demo.project"), Path.of("out.mp4"), RenderPreset.TIKTOK_VERTICAL,
+                Duration.ofSeconds(2), Duration.ofSeconds(8), null);
+
+        List<RenderClip> clips = RenderDagBuilder.clipsInRange(RenderQueueTest.sampleTimeline(), job.getStart(), job.getEnd());
+
+        assertEquals(2, clips.size());
+        assertEquals(Duration.ofSeconds(2), clips.get(0).sourceOffset());
+        assertEquals(Duration.ofSeconds(3), clips.get(0).duration());
+        assertEquals(Duration.ZERO, clips.get(1).sourceOffset());
+        assertEquals(Duration.ofSeconds(2), clips.get(1).duration());
+    }
+
+    @Test
+    void rejectsEmptyRange() {
+        RenderJob job = new RenderJob(Path.of("demo.project"), Path.of("out.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ofMinutes(5), Duration.ofMinutes(6), null);
+        assertThrows(IllegalStateException.class, () -> builder.build(job, RenderQueueTest.sampleTimeline()));
+    }
+}
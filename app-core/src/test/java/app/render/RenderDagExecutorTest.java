@@ -0,0 +1,126 @@
+package app.render;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderDagExecutorTest {
+    private final CriticalPathScheduler scheduler = new CriticalPathScheduler(4, new DurationEstimator());
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void runsIndependentBranchesConcurrently() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        List<String> completed = new CopyOnWriteArrayList<>();
+        Action awaitSibling = context -> {
+            bothStarted.countDown();
+            if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("branches did not overlap");
+            }
+        };
+        TestTask left = new TestTask("left", awaitSibling);
+        TestTask right = new TestTask("right", awaitSibling);
+        TestTask join = new TestTask("join", context -> { }, left, right);
+        RenderDag dag = dagOf(left, right, join);
+
+        new RenderDagExecutor(scheduler, 4).execute(dag, new RenderTaskContext(null), (task, elapsed) -> completed.add(task.toString()));
+
+        assertEquals(3, completed.size());
+        assertEquals("join", completed.get(2));
+    }
+
+    @Test
+    void failsFastAndCancelsSiblings() {
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        RenderTaskContext context = new RenderTaskContext(null);
+        TestTask slow = new TestTask("slow", ctx -> {
+            slowStarted.countDown();
+            Thread.sleep(10_000);
+        });
+        TestTask failing = new TestTask("failing", ctx -> {
+            slowStarted.await(5, TimeUnit.SECONDS);
+            throw new IOException("decode failed");
+        });
+        TestTask after = new TestTask("after", ctx -> { }, slow, failing);
+
+        long start = System.nanoTime();
+        IOException error = assertThrows(IOException.class,
+                () -> new RenderDagExecutor(scheduler, 2).execute(dagOf(slow, failing, after), context, null));
+
+        assertEquals("decode failed", error.getMessage());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(5)) < 0);
+        assertThrows(CancellationException.class, context::checkCancelled);
+    }
+
+    private static RenderDag dagOf(RenderTask... tasks) {
+        RenderDag dag = new RenderDag();
+        for (RenderTask task : tasks) {
+            dag.addTask(task);
+        }
+        return dag;
+    }
+
+    @FunctionalInterface
+    interface Action {
+        void run(RenderTaskContext context) throws Exception;
+    }
+
+    static final class TestTask implements RenderTask {
+        private final UUID id = UUID.randomUUID();
+        private final String name;
+        private final Action action;
+        private final List<RenderTask> dependencies;
+
+        private final Duration estimate;
+
+        TestTask(String name, Action action, RenderTask... dependencies) {
+            this(name, Duration.ofMillis(10), action, dependencies);
+        }
+
+        TestTask(String name, Duration estimate, Action action, RenderTask... dependencies) {
+            this.name = name;
+            this.estimate = estimate;
+            this.action = action;
+            this.dependencies = List.of(dependencies);
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+
+        @Override
+        public List<RenderTask> dependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public void execute(RenderTaskContext context) throws Exception {
+            action.run(context);
+        }
+
+        @Override
+        public Duration estimatedDuration() {
+            return estimate;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -1,24 +1,44 @@
 package app.render;
 
+import app.domain.TrackType;
+import app.render.cache.RenderCache;
+import app.timeline.Timeline;
+import app.timeline.TimelineClip;
+import app.timeline.TimelineTrack;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class RenderQueueTest {
     private RenderQueue queue;
     private Path storePath;
+    private RecordingBackend backend;
+    @TempDir
+    Path outputDir;
 
     @BeforeEach
     void setUp() throws Exception {
-        storePath = Files.createTempFile("render-jobs", ".json");
-        queue = new RenderQueue(storePath, 2);
+        storePath = outputDir.resolve("render-jobs.json");
+        backend = new RecordingBackend(Duration.ofMillis(50));
+        queue = new RenderQueue(storePath, 2, projectFile -> sampleTimeline(), backend);
     }
 
     @AfterEach
@@ -34,10 +54,36 @@ class RenderQueueTest {
 
     @Test
     void enqueueCompletesJob() throws Exception {
-        RenderJob job = new RenderJob(Path.of("demo.project"), Path.of("demo.mp4"), RenderPreset.YOUTUBE_1080P,
-                Duration.ZERO, Duration.ofMinutes(3), null);
+        RenderJob job = new RenderJob(Path.of("demo.project"), outputDir.resolve("demo.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
         var future = queue.enqueue(job, 10);
         assertTrue(future.get(10, TimeUnit.SECONDS) == null);
+        assertEquals(List.of("decode", "decode", "effects", "effects", "effects", "encode"),
+                backend.calls.stream().map(call -> call.split(":")[0]).sorted().toList());
+    }
+
+    @Test
+    void restartResumesFromCheckpoints() throws Exception {
+        queue.shutdown();
+        RecordingBackend failing = new RecordingBackend(Duration.ZERO);
+        failing.failEncode = true;
+        queue = new RenderQueue(storePath, 1, 1, projectFile -> sampleTimeline(), failing, null);
+        RenderJob job = new RenderJob(Path.of("demo.project"), outputDir.resolve("demo.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+        var failed = queue.enqueue(job, 10);
+        assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        queue.shutdown();
+
+        Path segment = outputDir.resolve("render-work").resolve(job.getId().toString()).resolve("segment-002.mkv");
+        Files.delete(segment);
+        backend = new RecordingBackend(Duration.ZERO);
+        queue = new RenderQueue(storePath, 1, 1, projectFile -> sampleTimeline(), backend, null);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            while (Files.exists(outputDir.resolve("render-work").resolve(job.getId().toString()))) {
+                Thread.sleep(20);
+            }
+        });
+        assertEquals(List.of("effects:2", "encode:3"), backend.calls.stream().sorted().toList());
     }
 
     @Test
@@ -55,4 +101,191 @@ class RenderQueueTest {
         }
         assertTrue(cancelled);
     }
+
+    @Test
+    void cachedNodesAreNotRecomputed() throws Exception {
+        queue.shutdown();
+        RenderCache cache = new RenderCache(outputDir.resolve("cache"), 1024 * 1024);
+        Timeline timeline = sampleTimeline();
+        queue = new RenderQueue(storePath, 1, 1, projectFile -> timeline, backend, cache);
+        RenderJob first = new RenderJob(Path.of("demo.project"), outputDir.resolve("first.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+        queue.enqueue(first, 10).get(10, TimeUnit.SECONDS);
+        assertEquals(6, backend.calls.size());
+
+        backend.calls.clear();
+        RenderJob again = new RenderJob(Path.of("demo.project"), outputDir.resolve("again.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+        queue.enqueue(again, 10).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of(), backend.calls);
+        assertEquals("first.mp4", Files.readString(again.getOutput()));
+
+        // Exports are copied out of the cache rather than linked, so editing one in place leaves the entry intact.
+        Files.writeString(again.getOutput(), "retagged");
+        RenderJob third = new RenderJob(Path.of("demo.project"), outputDir.resolve("third.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+        queue.enqueue(third, 10).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of(), backend.calls);
+        assertEquals("first.mp4", Files.readString(third.getOutput()));
+
+        timeline.getTracks().get(0).getClips().get(1).setAudioGainDb(-6);
+        RenderJob edited = new RenderJob(Path.of("demo.project"), outputDir.resolve("edited.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+        queue.enqueue(edited, 10).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("decode:b.mp4", "effects:2", "encode:3"), backend.calls.stream().sorted().toList());
+    }
+
+    @Test
+    void effectKeysOnlyInvalidateEffectNodesAndUnkeyedEffectsAreNotCached() throws Exception {
+        queue.shutdown();
+        RenderCache cache = new RenderCache(outputDir.resolve("cache"), 1024 * 1024);
+        queue = new RenderQueue(storePath, 1, 1, projectFile -> sampleTimeline(), backend, cache);
+        render("first.mp4");
+
+        backend.calls.clear();
+        backend.effectsKey = "graded";
+        render("graded.mp4");
+        assertEquals(List.of("effects:0", "effects:1", "effects:2", "encode:3"), backend.calls.stream().sorted().toList());
+
+        backend.effectsKey = null;
+        for (String name : List.of("unkeyed.mp4", "unkeyed-again.mp4")) {
+            backend.calls.clear();
+            render(name);
+            assertEquals(List.of("effects:0", "effects:1", "effects:2", "encode:3"), backend.calls.stream().sorted().toList());
+        }
+    }
+
+    private void render(String output) throws Exception {
+        queue.enqueue(new RenderJob(Path.of("demo.project"), outputDir.resolve(output), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null), 10).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void admissionRespectsResourceBudget() throws Exception {
+        queue.shutdown();
+        ResourceCost prores = ResourceCost.of(RenderPreset.PRORES_422, 1);
+        ResourceBudget budget = new ResourceBudget(8, prores.memoryBytes() + prores.memoryBytes() / 2, Long.MAX_VALUE);
+        queue = new RenderQueue(storePath, 4, 1, projectFile -> sampleTimeline(), backend, null, budget);
+
+        assertEquals(1, maxConcurrentJobs(RenderPreset.PRORES_422, RenderPreset.PRORES_422));
+        assertEquals(2, maxConcurrentJobs(RenderPreset.TIKTOK_VERTICAL, RenderPreset.TIKTOK_VERTICAL));
+        assertEquals(ResourceCost.ZERO, queue.resourcesInUse());
+    }
+
+    @Test
+    void cancellingAnAdmittedJobBeforeItStartsReturnsItsBudget() throws Exception {
+        queue.shutdown();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        queue = new RenderQueue(storePath, 1, 1, projectFile -> {
+            if (projectFile.equals(Path.of("slow.project"))) {
+                entered.countDown();
+                // Ignores interrupts so the single worker thread stays busy after the job is cancelled.
+                while (true) {
+                    try {
+                        proceed.await();
+                        break;
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+            return sampleTimeline();
+        }, backend, null);
+        RenderJob slow = new RenderJob(Path.of("slow.project"), outputDir.resolve("slow.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+        RenderJob next = new RenderJob(Path.of("demo.project"), outputDir.resolve("next.mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(12), null);
+        queue.enqueue(slow, 10);
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        queue.enqueue(next, 0);
+
+        // Cancelling the slow job admits the next one, which then waits behind the still busy worker thread.
+        queue.cancel(slow.getId());
+        assertEquals(1, queue.runningJobs());
+        queue.cancel(next.getId());
+        assertEquals(ResourceCost.ZERO, queue.resourcesInUse());
+
+        proceed.countDown();
+        queue.shutdown();
+        assertEquals(ResourceCost.ZERO, queue.resourcesInUse());
+        assertEquals(List.of(), backend.calls);
+        queue = null;
+    }
+
+    private int maxConcurrentJobs(RenderPreset... presets) throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (RenderPreset preset : presets) {
+            futures.add(queue.enqueue(new RenderJob(Path.of("demo.project"), outputDir.resolve(UUID.randomUUID() + ".mp4"),
+                    preset, Duration.ZERO, Duration.ofSeconds(12), null), 0));
+        }
+        int max = 0;
+        while (!futures.stream().allMatch(CompletableFuture::isDone)) {
+            max = Math.max(max, queue.runningJobs());
+            Thread.sleep(5);
+        }
+        for (var future : futures) {
+            future.get();
+        }
+        return max;
+    }
+
+    static Timeline sampleTimeline() {
+        Timeline timeline = new Timeline();
+        TimelineTrack video = new TimelineTrack(TrackType.VIDEO);
+        video.addClip(new TimelineClip(Path.of("a.mp4"), Duration.ZERO, Duration.ofSeconds(5)));
+        video.addClip(new TimelineClip(Path.of("b.mp4"), Duration.ofSeconds(6), Duration.ofSeconds(6)));
+        timeline.addTrack(video);
+        return timeline;
+    }
+
+    static final class RecordingBackend implements RenderBackend {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        private final Duration delay;
+        volatile boolean failEncode;
+        volatile String effectsKey = "plain";
+
+        RecordingBackend(Duration delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public String cacheKey() {
+            return effectsKey;
+        }
+
+        @Override
+        public void decode(RenderClip clip, RenderPreset preset, Path output, RenderTaskContext context) throws Exception {
+            work(context);
+            touch(output);
+            calls.add("decode:" + clip.source());
+        }
+
+        @Override
+        public void applyEffects(RenderSegment segment, RenderPreset preset, Path output, RenderTaskContext context) throws Exception {
+            work(context);
+            touch(output);
+            calls.add("effects:" + segment.index());
+        }
+
+        @Override
+        public void encode(RenderJob job, List<Path> segments, RenderTaskContext context) throws Exception {
+            work(context);
+            if (failEncode) {
+                throw new IOException("encoder crashed");
+            }
+            touch(job.getOutput());
+            calls.add("encode:" + segments.size());
+        }
+
+        private static void touch(Path output) throws IOException {
+            Files.createDirectories(output.getParent());
+            Files.writeString(output, output.getFileName().toString());
+        }
+
+        private void work(RenderTaskContext context) throws InterruptedException {
+            context.checkCancelled();
+            Thread.sleep(delay.toMillis());
+            context.checkCancelled();
+        }
+    }
 }
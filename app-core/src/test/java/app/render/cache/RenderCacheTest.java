@@ -0,0 +1,82 @@
+package app.render.cache;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderCacheTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesBeyondBudget() throws Exception {
+        RenderCache cache = new RenderCache(tempDir.resolve("cache"), 250);
+        cache.store("aa01", List.of(file("a", 100)));
+        cache.store("bb02", List.of(file("b", 100)));
+        assertTrue(cache.restore("aa01", List.of(tempDir.resolve("restored-a"))));
+        cache.store("cc03", List.of(file("c", 100)));
+
+        assertTrue(cache.contains("aa01"));
+        assertFalse(cache.contains("bb02"));
+        assertTrue(cache.contains("cc03"));
+        assertEquals(200, cache.sizeBytes());
+        assertEquals(100, Files.size(tempDir.resolve("restored-a")));
+    }
+
+    @Test
+    void reloadsEntriesFromDisk() throws Exception {
+        Path root = tempDir.resolve("cache");
+        new RenderCache(root, 1_000).store("dd04", List.of(file("d", 10), file("e", 20)));
+
+        RenderCache reopened = new RenderCache(root, 1_000);
+        assertEquals(30, reopened.sizeBytes());
+        Path first = tempDir.resolve("out/first");
+        Path second = tempDir.resolve("out/second");
+        assertTrue(reopened.restore("dd04", List.of(first, second)));
+        assertEquals(20, Files.size(second));
+    }
+
+    @Test
+    void entriesSurviveOutputsBeingReplaced() throws Exception {
+        RenderCache cache = new RenderCache(tempDir.resolve("cache"), 1_000);
+        Path output = tempDir.resolve("out");
+        Files.writeString(output, "first render");
+        cache.store("ee05", List.of(output), true);
+
+        Files.delete(output);
+        Files.writeString(output, "second render");
+        Path restored = tempDir.resolve("restored");
+        assertTrue(cache.restore("ee05", List.of(restored)));
+        assertEquals("first render", Files.readString(restored));
+        assertEquals("second render", Files.readString(output));
+    }
+
+    @Test
+    void unlinkedEntriesSurviveOutputsEditedInPlace() throws Exception {
+        RenderCache cache = new RenderCache(tempDir.resolve("cache"), 1_000);
+        Path export = tempDir.resolve("export.mp4");
+        Files.writeString(export, "first render");
+        cache.store("ff06", List.of(export));
+
+        Files.writeString(export, "retagged");
+        Path restored = tempDir.resolve("restored");
+        assertTrue(cache.restore("ff06", List.of(restored)));
+        assertEquals("first render", Files.readString(restored));
+
+        Files.writeString(restored, "edited again");
+        Path again = tempDir.resolve("again");
+        assertTrue(cache.restore("ff06", List.of(again)));
+        assertEquals("first render", Files.readString(again));
+    }
+
+    private Path file(String name, int size) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.write(file, new byte[size]);
+        return file;
+    }
+}
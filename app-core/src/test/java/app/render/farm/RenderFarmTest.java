@@ -0,0 +1,125 @@
+package app.render.farm;
+
+import app.domain.TrackType;
+import app.render.RenderBackend;
+import app.render.RenderClip;
+import app.render.RenderJob;
+import app.render.RenderPreset;
+import app.render.RenderSegment;
+import app.render.RenderTaskContext;
+import app.timeline.Timeline;
+import app.timeline.TimelineClip;
+import app.timeline.TimelineTrack;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderFarmTest {
+    @TempDir
+    Path tempDir;
+
+    private final List<RenderFarmWorker> workers = new ArrayList<>();
+    private RenderFarmCoordinator coordinator;
+
+    @AfterEach
+    void tearDown() {
+        workers.forEach(RenderFarmWorker::shutdown);
+        if (coordinator != null) {
+            coordinator.shutdown();
+        }
+    }
+
+    @Test
+    void workersShareQueuedJobs() throws Exception {
+        Path spool = tempDir.resolve("spool");
+        coordinator = new RenderFarmCoordinator(tempDir.resolve("jobs.json"), spool, Duration.ofSeconds(2), 3);
+        EncodingBackend first = new EncodingBackend();
+        EncodingBackend second = new EncodingBackend();
+        workers.add(worker(spool, "w1", first));
+        workers.add(worker(spool, "w2", second));
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            RenderJob job = new RenderJob(Path.of("demo.project"), tempDir.resolve("out-" + i + ".mp4"),
+                    RenderPreset.YOUTUBE_1080P, Duration.ZERO, Duration.ofSeconds(1 + i), null);
+            futures.add(coordinator.enqueue(job, i));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(20, TimeUnit.SECONDS);
+
+        assertEquals(4, first.encodedOutputs.size() + second.encodedOutputs.size());
+        assertTrue(first.encodedOutputs.size() > 0 && second.encodedOutputs.size() > 0);
+        assertTrue(new RenderSpool(spool).leases().isEmpty());
+    }
+
+    @Test
+    void expiredLeaseIsReassigned() throws Exception {
+        Path spool = tempDir.resolve("spool");
+        coordinator = new RenderFarmCoordinator(tempDir.resolve("jobs.json"), spool, Duration.ofMillis(300), 3);
+        RenderJob job = job("orphan.mp4");
+        CompletableFuture<Void> future = coordinator.enqueue(job, 0);
+        RenderSpool view = new RenderSpool(spool);
+        assertTrue(view.claim(view.queued().get(0), "crashed").isPresent());
+
+        EncodingBackend backend = new EncodingBackend();
+        workers.add(worker(spool, "survivor", backend));
+        future.get(20, TimeUnit.SECONDS);
+
+        assertEquals(List.of(job.getOutput()), List.copyOf(backend.encodedOutputs));
+        assertTrue(Files.exists(job.getOutput()));
+    }
+
+    private RenderFarmWorker worker(Path spool, String id, EncodingBackend backend) throws IOException {
+        return new RenderFarmWorker(spool, id, 1, projectFile -> timeline(), backend, Duration.ofMillis(50));
+    }
+
+    private RenderJob job(String output) {
+        return new RenderJob(Path.of("demo.project"), tempDir.resolve(output), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(4), null);
+    }
+
+    private static Timeline timeline() {
+        Timeline timeline = new Timeline();
+        TimelineTrack video = new TimelineTrack(TrackType.VIDEO);
+        video.addClip(new TimelineClip(Path.of("a.mp4"), Duration.ZERO, Duration.ofSeconds(4)));
+        timeline.addTrack(video);
+        return timeline;
+    }
+
+    static final class EncodingBackend implements RenderBackend {
+        final Set<Path> encodedOutputs = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void decode(RenderClip clip, RenderPreset preset, Path output, RenderTaskContext context) throws Exception {
+            touch(output);
+        }
+
+        @Override
+        public void applyEffects(RenderSegment segment, RenderPreset preset, Path output, RenderTaskContext context) throws Exception {
+            touch(output);
+        }
+
+        @Override
+        public void encode(RenderJob job, List<Path> segments, RenderTaskContext context) throws Exception {
+            Thread.sleep(200);
+            touch(job.getOutput());
+            encodedOutputs.add(job.getOutput());
+        }
+
+        private static void touch(Path output) throws IOException {
+            Files.createDirectories(output.getParent());
+            Files.writeString(output, output.getFileName().toString());
+        }
+    }
+}
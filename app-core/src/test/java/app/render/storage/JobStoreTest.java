@@ -0,0 +1,154 @@
+package app.render.storage;
+
+import app.render.RenderJob;
+import app.render.RenderPreset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobStoreTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recoversJobsFromJournalAfterRestart() throws Exception {
+        Path storePath = tempDir.resolve("jobs.json");
+        RenderJob kept = job("kept");
+        RenderJob removed = job("removed");
+        try (JobStore store = new JobStore(storePath)) {
+            store.save(kept);
+            store.save(removed);
+            store.remove(removed.getId());
+        }
+
+        try (JobStore store = new JobStore(storePath)) {
+            assertEquals(1, store.pending().size());
+            RenderJob restored = store.pending().get(0);
+            assertEquals(kept.getId(), restored.getId());
+            assertEquals(kept.getOutput(), restored.getOutput());
+            assertEquals(kept.getPreset(), restored.getPreset());
+            assertEquals(kept.getEnd(), restored.getEnd());
+            assertEquals("kept", restored.getMetadata().get("name"));
+        }
+    }
+
+    @Test
+    void ignoresTornJournalTail() throws Exception {
+        Path storePath = tempDir.resolve("jobs.json");
+        Path journalPath = tempDir.resolve("jobs.json.journal");
+        RenderJob job = job("a");
+        try (JobStore store = new JobStore(storePath)) {
+            store.save(job);
+        }
+        Files.write(journalPath, "{\"op\":\"REMOVE\",\"id\":\"".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (JobStore store = new JobStore(storePath)) {
+            assertEquals(Set.of(job.getId()), ids(store));
+        }
+        assertEquals(0, Files.size(journalPath));
+    }
+
+    @Test
+    void compactsJournalIntoSnapshot() throws Exception {
+        Path storePath = tempDir.resolve("jobs.json");
+        Path journalPath = tempDir.resolve("jobs.json.journal");
+        Set<UUID> expected;
+        try (JobStore store = new JobStore(storePath)) {
+            for (int i = 0; i < 3000; i++) {
+                RenderJob job = job("job-" + i);
+                store.save(job);
+                if (i % 2 == 0) {
+                    store.remove(job.getId());
+                }
+            }
+            expected = ids(store);
+            assertTrue(Files.size(journalPath) < Files.size(storePath) * 4);
+        }
+
+        try (JobStore store = new JobStore(storePath)) {
+            assertEquals(1500, store.pending().size());
+            assertEquals(expected, ids(store));
+        }
+    }
+
+    @Test
+    void interruptedCheckpointDoesNotBreakTheStore() throws Exception {
+        Path storePath = tempDir.resolve("jobs.json");
+        Path output = Files.writeString(tempDir.resolve("segment.mkv"), "frames");
+        RenderJob job = job("interrupted");
+        try (JobStore store = new JobStore(storePath)) {
+            store.save(job);
+            // A render thread cancelled with Future.cancel(true) can be interrupted at any point, including mid-write.
+            Thread.currentThread().interrupt();
+            try {
+                store.checkpoint(job.getId(), "decode:0", List.of(output));
+                assertTrue(Thread.currentThread().isInterrupted());
+            } finally {
+                Thread.interrupted();
+            }
+            store.checkpoint(job.getId(), "decode:1", List.of(output));
+            store.save(job("after"));
+        }
+
+        try (JobStore store = new JobStore(storePath)) {
+            assertEquals(2, store.pending().size());
+            assertEquals(Set.of("decode:0", "decode:1"), store.checkpoints(job.getId()).keySet());
+        }
+    }
+
+    @Test
+    void concurrentWritersAndCompactionDoNotDeadlock() throws Exception {
+        Path storePath = tempDir.resolve("jobs.json");
+        try (JobStore store = new JobStore(storePath)) {
+            ExecutorService writers = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int w = 0; w < 4; w++) {
+                    int writerIndex = w;
+                    futures.add(writers.submit(() -> {
+                        for (int i = 0; i < 500; i++) {
+                            RenderJob job = job("w" + writerIndex + "-" + i);
+                            store.save(job);
+                            store.remove(job.getId());
+                            if (i % 50 == 0) {
+                                store.compact();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                writers.shutdownNow();
+            }
+            assertEquals(0, store.pending().size());
+        }
+    }
+
+    private static Set<UUID> ids(JobStore store) {
+        return store.pending().stream().map(RenderJob::getId).collect(Collectors.toSet());
+    }
+
+    private RenderJob job(String name) {
+        return new RenderJob(tempDir.resolve("project.json"), tempDir.resolve(name + ".mp4"), RenderPreset.YOUTUBE_1080P,
+                Duration.ZERO, Duration.ofSeconds(10), Map.of("name", name));
+    }
+}
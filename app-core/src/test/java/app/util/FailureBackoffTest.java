@@ -0,0 +1,43 @@
+package app.util;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FailureBackoffTest {
+    @Test
+    void failedSourcesAreRetriedAfterAGrowingDelayOrOnceTheyChange() {
+        AtomicLong now = new AtomicLong(1_000);
+        FailureBackoff backoff = new FailureBackoff(Duration.ofSeconds(1), Duration.ofSeconds(3), now::get);
+        Path source = Path.of("clip.mp4");
+        assertTrue(backoff.shouldAttempt(source, "v1"));
+
+        backoff.failed(source, "v1");
+        assertFalse(backoff.shouldAttempt(source, "v1"));
+        now.addAndGet(1_000);
+        assertTrue(backoff.shouldAttempt(source, "v1"));
+
+        backoff.failed(source, "v1");
+        now.addAndGet(1_000);
+        assertFalse(backoff.shouldAttempt(source, "v1"));
+        now.addAndGet(1_000);
+        assertTrue(backoff.shouldAttempt(source, "v1"));
+
+        // Capped: the fourth failure waits no longer than the third.
+        backoff.failed(source, "v1");
+        backoff.failed(source, "v1");
+        now.addAndGet(3_000);
+        assertTrue(backoff.shouldAttempt(source, "v1"));
+
+        backoff.failed(source, "v1");
+        assertTrue(backoff.shouldAttempt(source, "v2"));
+        assertTrue(backoff.shouldAttempt(source, "v1"));
+
+        backoff.failed(source, "v1");
+        backoff.succeeded(source.toAbsolutePath());
+        assertTrue(backoff.shouldAttempt(source, "v1"));
+    }
+}
@@ -6,6 +6,7 @@ import app.media.export.ExportProgressListener;
 import app.media.export.MediaExportRequest;
 import app.media.export.MediaExporter;
 import app.media.frame.FrameExtractor;
+import app.media.frame.FrameSink;
 import app.media.probe.MediaMetadata;
 import app.media.probe.MediaProbe;
 import java.awt.image.BufferedImage;
@@ -58,6 +59,12 @@ public class MediaEngine {
         return frameExtractor.extract(mediaPath, seconds);
     }
 
+    public void extractFrames(Path mediaPath, double[] seconds, FrameSink sink) throws IOException {
+        LOGGER.debug("Extracting {} frames from {}", seconds.length, mediaPath);
+        ensureFfmpeg();
+        frameExtractor.extractFrames(mediaPath, seconds, sink);
+    }
+
     public void export(MediaExportRequest request, ExportProgressListener listener) throws IOException {
         LOGGER.info("Exporting {} to {} with preset {}", request.input(), request.output(), request.preset());
         ensureFfmpeg();
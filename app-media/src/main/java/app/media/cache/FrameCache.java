@@ -1,83 +1,283 @@
 package app.media.cache;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Objects;
-import javax.imageio.ImageIO;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class FrameCache {
-    private final Map<String, BufferedImage> memoryCache;
-    private final Path cacheDir;
-    private final Object lock = new Object();
+public class FrameCache implements Closeable {
+    private static final long REFERENCE_FRAME_BYTES = 1920L * 1080 * 4;
+    private static final long DEFAULT_DISK_BYTES = 4L * 1024 * 1024 * 1024;
+
+    private final ConcurrentHashMap<String, Entry> memoryCache = new ConcurrentHashMap<>();
+    // CLOCK ring: entries are re-queued with their reference bit cleared instead of being moved on every hit.
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    // Misses in progress, so concurrent requests for one key share a single disk read or decode.
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final FrameStore diskStore;
+    private final PagePool pages;
+    private final int maxEntries;
+    private final long maxBytes;
 
     public FrameCache(Path cacheDir, int maxEntries) throws IOException {
+        this(cacheDir, maxEntries, Math.min(maxEntries * REFERENCE_FRAME_BYTES, Runtime.getRuntime().maxMemory() / 4));
+    }
+
+    public FrameCache(Path cacheDir, int maxEntries, long maxBytes) throws IOException {
+        this(cacheDir, maxEntries, maxBytes, DEFAULT_DISK_BYTES, FrameStore.DEFAULT_SEGMENT_BYTES);
+    }
+
+    public FrameCache(Path cacheDir, int maxEntries, long maxBytes, long maxDiskBytes, long segmentBytes) throws IOException {
         Objects.requireNonNull(cacheDir, "cacheDir");
         if (maxEntries <= 0) {
             throw new IllegalArgumentException("maxEntries must be > 0");
         }
-        this.cacheDir = cacheDir;
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be > 0");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.pages = new PagePool(maxBytes);
         Files.createDirectories(cacheDir);
-        this.memoryCache = new LinkedHashMap<>(16, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
-                return size() > maxEntries;
-            }
-        };
+        this.diskStore = new FrameStore(cacheDir, maxDiskBytes, segmentBytes);
     }
 
     public BufferedImage get(String key, FrameLoader loader) throws IOException {
+        return get(key, null, loader);
+    }
+
+    // Hits are copied into reuse when it matches the frame's size and layout, so a caller walking many cached frames
+    // does not allocate a full image per frame. Misses return the loader's image when its raster is one the cache
+    // stores as-is and an INT_ARGB copy otherwise, the same type a later hit returns.
+    public BufferedImage get(String key, BufferedImage reuse, FrameLoader loader) throws IOException {
         Objects.requireNonNull(key, "key");
         Objects.requireNonNull(loader, "loader");
-        String hashedKey = hashKey(key);
 
-        synchronized (lock) {
-            BufferedImage cached = memoryCache.get(hashedKey);
-            if (cached != null) {
-                return cached;
+        while (true) {
+            Entry cached = memoryCache.get(key);
+            // A failed retain means the entry was evicted and its pages may already hold another frame.
+            if (cached != null && cached.retain()) {
+                try {
+                    cached.referenced = true;
+                    return cached.toImage(reuse);
+                } finally {
+                    cached.release();
+                }
             }
-        }
 
-        Path diskPath = cacheDir.resolve(hashedKey + ".png");
-        if (Files.exists(diskPath)) {
-            BufferedImage image = ImageIO.read(diskPath.toFile());
-            synchronized (lock) {
-                memoryCache.put(hashedKey, image);
+            CompletableFuture<Boolean> load = new CompletableFuture<>();
+            CompletableFuture<Boolean> existing = inFlight.putIfAbsent(key, load);
+            if (existing != null) {
+                // The load normally leaves the frame in memory or on disk, so the next pass picks it up from there.
+                if (!await(existing)) {
+                    return null;
+                }
+                continue;
+            }
+
+            boolean loaded = false;
+            try {
+                BufferedImage image = loadMiss(key, reuse, loader);
+                loaded = image != null;
+                return image;
+            } catch (IOException | RuntimeException | Error ex) {
+                load.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                inFlight.remove(key, load);
+                load.complete(loaded);
             }
-            return image;
+        }
+    }
+
+    private BufferedImage loadMiss(String key, BufferedImage reuse, FrameLoader loader) throws IOException {
+        String hashedKey = hashKey(key);
+        BufferedImage stored = diskStore.read(hashedKey, slice -> copyOf(slice, reuse));
+        if (stored != null) {
+            put(key, stored);
+            return stored;
         }
 
         BufferedImage loaded = loader.load();
         if (loaded == null) {
             return null;
         }
+        BufferedImage image = hasPackedRaster(loaded) ? loaded : toIntArgb(loaded);
+        DataBuffer data = image.getRaster().getDataBuffer();
+        if (data instanceof DataBufferInt ints) {
+            diskStore.write(hashedKey, image.getWidth(), image.getHeight(), image.getType(),
+                    ints.getData().length * Integer.BYTES, target -> target.asIntBuffer().put(0, ints.getData()));
+        } else {
+            byte[] bytes = ((DataBufferByte) data).getData();
+            diskStore.write(hashedKey, image.getWidth(), image.getHeight(), image.getType(), bytes.length,
+                    target -> target.put(0, bytes));
+        }
+        put(key, image);
+        return image;
+    }
 
-        ImageIO.write(loaded, "png", diskPath.toFile());
-        synchronized (lock) {
-            memoryCache.put(hashedKey, loaded);
+    private static boolean await(CompletableFuture<Boolean> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for frame load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw new IOException(io.getMessage(), io);
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
         }
-        return loaded;
+    }
+
+    public long diskBytes() {
+        return diskStore.sizeBytes();
+    }
+
+    public long memoryBytes() {
+        return memoryBytes.get();
+    }
+
+    public int memoryEntries() {
+        return memoryCache.size();
     }
 
     public void clear() throws IOException {
-        synchronized (lock) {
-            memoryCache.clear();
+        evictionLock.lock();
+        try {
+            for (Entry entry : memoryCache.values()) {
+                if (memoryCache.remove(entry.key, entry)) {
+                    memoryBytes.addAndGet(-entry.size());
+                    entry.release();
+                }
+            }
+            clock.clear();
+        } finally {
+            evictionLock.unlock();
         }
-        try (var files = Files.list(cacheDir)) {
-            files.forEach(path -> {
-                try {
-                    Files.deleteIfExists(path);
-                } catch (IOException ignored) {
+        diskStore.clear();
+    }
+
+    long reservedBytes() {
+        return pages.reservedBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        diskStore.close();
+    }
+
+    private void put(String key, BufferedImage image) {
+        if (memoryCache.containsKey(key)) {
+            return;
+        }
+        DataBuffer data = image.getRaster().getDataBuffer();
+        long length = data instanceof DataBufferInt ints ? (long) ints.getData().length * Integer.BYTES
+                : ((DataBufferByte) data).getData().length;
+        int[] allocated = allocate(PagePool.pagesFor(length));
+        if (allocated == null) {
+            return;
+        }
+        if (data instanceof DataBufferInt ints) {
+            pages.write(allocated, ints.getData());
+        } else {
+            pages.write(allocated, ((DataBufferByte) data).getData());
+        }
+        Entry entry = new Entry(key, image.getWidth(), image.getHeight(), image.getType(), allocated, pages);
+        Entry previous = memoryCache.putIfAbsent(key, entry);
+        if (previous != null) {
+            previous.referenced = true;
+            entry.release();
+            return;
+        }
+        memoryBytes.addAndGet(entry.size());
+        clock.add(entry);
+        evictIfNeeded();
+    }
+
+    // Evicts until the pool can cover the frame; null if it cannot even then, e.g. while evicted pages are still being
+    // copied out by readers, in which case the frame skips the memory tier.
+    private int[] allocate(int count) {
+        if (count > pages.maxPages()) {
+            return null;
+        }
+        int[] allocated = pages.allocate(count);
+        if (allocated != null) {
+            return allocated;
+        }
+        evictionLock.lock();
+        try {
+            allocated = pages.allocate(count);
+            while (allocated == null && evictOne()) {
+                allocated = pages.allocate(count);
+            }
+            return allocated;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void evictIfNeeded() {
+        if (memoryBytes.get() <= maxBytes && memoryCache.size() <= maxEntries) {
+            return;
+        }
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (memoryBytes.get() > maxBytes || memoryCache.size() > maxEntries) {
+                if (!evictOne()) {
+                    break;
                 }
-            });
+            }
+        } finally {
+            evictionLock.unlock();
         }
     }
 
+    // Called with evictionLock held. The entry leaves the map before its pages are released, so a reader that finds
+    // it there either retains it first or sees the retain fail.
+    private boolean evictOne() {
+        Entry candidate;
+        while ((candidate = clock.poll()) != null) {
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                clock.add(candidate);
+            } else if (memoryCache.remove(candidate.key, candidate)) {
+                memoryBytes.addAndGet(-candidate.size());
+                candidate.release();
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static String hashKey(String key) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-1");
@@ -91,4 +291,97 @@ public class FrameCache {
             throw new IllegalStateException("SHA-1 algorithm not available", e);
         }
     }
+
+    private static BufferedImage copyOf(FrameStore.Slice slice, BufferedImage reuse) {
+        BufferedImage image = fits(reuse, slice.width(), slice.height(), slice.type()) ? reuse
+                : new BufferedImage(slice.width(), slice.height(), slice.type());
+        DataBuffer data = image.getRaster().getDataBuffer();
+        if (data instanceof DataBufferInt ints) {
+            slice.pixels().duplicate().order(ByteOrder.nativeOrder()).asIntBuffer().get(ints.getData());
+        } else {
+            slice.pixels().duplicate().get(((DataBufferByte) data).getData());
+        }
+        return image;
+    }
+
+    private static boolean fits(BufferedImage image, int width, int height, int type) {
+        return image != null && image.getWidth() == width && image.getHeight() == height && image.getType() == type
+                && hasPackedRaster(image);
+    }
+
+    private static boolean hasPackedRaster(BufferedImage image) {
+        int type = image.getType();
+        boolean supported = type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+                || type == BufferedImage.TYPE_INT_BGR || type == BufferedImage.TYPE_3BYTE_BGR
+                || type == BufferedImage.TYPE_4BYTE_ABGR || type == BufferedImage.TYPE_BYTE_GRAY;
+        if (!supported) {
+            return false;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer data = raster.getDataBuffer();
+        int expected = image.getWidth() * image.getHeight() * raster.getNumDataElements();
+        return raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0 && data.getNumBanks() == 1 && data.getSize() == expected;
+    }
+
+    private static BufferedImage toIntArgb(BufferedImage image) {
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int[] argb = ((DataBufferInt) converted.getRaster().getDataBuffer()).getData();
+        image.getRGB(0, 0, image.getWidth(), image.getHeight(), argb, 0, image.getWidth());
+        return converted;
+    }
+
+    // Pixels live in pool pages in the raster's own layout, so a hit is a few bulk copies into an image. The cache
+    // holds one reference and each hit another for the length of its copy; the pages are freed with the last one.
+    private static final class Entry {
+        private final String key;
+        private final int width;
+        private final int height;
+        private final int type;
+        private final int[] pages;
+        private final PagePool pool;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile boolean referenced;
+
+        private Entry(String key, int width, int height, int type, int[] pages, PagePool pool) {
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.pages = pages;
+            this.pool = pool;
+        }
+
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                pool.release(pages);
+            }
+        }
+
+        long size() {
+            return (long) pages.length * PagePool.PAGE_BYTES;
+        }
+
+        BufferedImage toImage(BufferedImage reuse) {
+            BufferedImage image = fits(reuse, width, height, type) ? reuse : new BufferedImage(width, height, type);
+            DataBuffer data = image.getRaster().getDataBuffer();
+            if (data instanceof DataBufferInt ints) {
+                pool.read(pages, ints.getData());
+            } else {
+                pool.read(pages, ((DataBufferByte) data).getData());
+            }
+            return image;
+        }
+    }
 }
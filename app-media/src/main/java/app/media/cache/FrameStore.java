@@ -0,0 +1,331 @@
+package app.media.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Disk tier of FrameCache: raw frames appended to large memory-mapped segment files. A fixed-width index log is
+// replayed on startup, so reopening the cache never lists the directory, and hits are slices of the mapping.
+// Segments are numbered by generation and written into a fixed ring of slot files; the oldest generation is dropped by
+// overwriting its slot rather than deleting it, since a file that is still mapped cannot be deleted on every platform.
+final class FrameStore implements Closeable {
+    static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrameStore.class);
+    private static final int MAGIC = 0x4d465231;
+    private static final int KEY_BYTES = 20;
+    private static final int HEADER_BYTES = Integer.BYTES + KEY_BYTES;
+    private static final int INDEX_RECORD_BYTES = KEY_BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES * 4;
+    private static final String INDEX_FILE = "frames.idx";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+    private final Map<Integer, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    private final TreeMap<Integer, Integer> recordsPerSegment = new TreeMap<>();
+    private final Object writeLock = new Object();
+    private final MappedByteBuffer[] slots;
+    // Generation held by each slot, -1 while the slot is free.
+    private final int[] slotGenerations;
+    private volatile int mappedSlots;
+    private FileChannel indexChannel;
+    private int currentSegment;
+    private long writePosition;
+    private long deadRecords;
+
+    FrameStore(Path directory, long maxBytes, long segmentBytes) throws IOException {
+        this.directory = Objects.requireNonNull(directory, "directory");
+        if (segmentBytes <= HEADER_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes out of range: " + segmentBytes);
+        }
+        if (maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("maxBytes must hold at least one segment");
+        }
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        int slotCount = (int) Math.min(maxBytes / segmentBytes, Integer.MAX_VALUE);
+        this.slots = new MappedByteBuffer[slotCount];
+        this.slotGenerations = new int[slotCount];
+        Arrays.fill(slotGenerations, -1);
+        Files.createDirectories(directory);
+        deleteStraySegments();
+        loadIndex();
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    Slice read(String hashedKey) {
+        return slice(hashedKey, index.get(hashedKey));
+    }
+
+    // Copies a frame out of its slot, returning null if the slot was recycled while copy ran: a generation is removed
+    // from the index before its slot is overwritten, so an unchanged index entry means the bytes were not touched.
+    <T> T read(String hashedKey, Function<Slice, T> copy) {
+        Location location = index.get(hashedKey);
+        Slice slice = slice(hashedKey, location);
+        if (slice == null) {
+            return null;
+        }
+        T copied = copy.apply(slice);
+        return index.get(hashedKey) == location ? copied : null;
+    }
+
+    private Slice slice(String hashedKey, Location location) {
+        if (location == null) {
+            return null;
+        }
+        MappedByteBuffer segment = segments.get(location.segment());
+        if (segment == null) {
+            return null;
+        }
+        ByteBuffer record = segment.slice((int) location.offset(), HEADER_BYTES + location.length());
+        byte[] key = new byte[KEY_BYTES];
+        record.get(Integer.BYTES, key);
+        if (record.getInt(0) != MAGIC || !HexFormat.of().formatHex(key).equals(hashedKey)) {
+            index.remove(hashedKey, location);
+            return null;
+        }
+        ByteBuffer pixels = record.slice(HEADER_BYTES, location.length()).asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+        return new Slice(location.width(), location.height(), location.type(), pixels);
+    }
+
+    void write(String hashedKey, int width, int height, int type, ByteBuffer pixels) throws IOException {
+        write(hashedKey, width, height, type, pixels.remaining(),
+                target -> target.put(0, pixels, pixels.position(), pixels.remaining()));
+    }
+
+    // fill writes the frame's length bytes straight into the mapped segment, in native order for int rasters.
+    void write(String hashedKey, int width, int height, int type, int length, Consumer<ByteBuffer> fill)
+            throws IOException {
+        if (HEADER_BYTES + (long) length > segmentBytes || index.containsKey(hashedKey)) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (writePosition + HEADER_BYTES + length > segmentBytes || !segments.containsKey(currentSegment)) {
+                rollSegment();
+            }
+            MappedByteBuffer segment = segments.get(currentSegment);
+            int offset = (int) writePosition;
+            segment.putInt(offset, MAGIC);
+            segment.put(offset + Integer.BYTES, HexFormat.of().parseHex(hashedKey));
+            fill.accept(segment.slice(offset + HEADER_BYTES, length).order(ByteOrder.nativeOrder()));
+            writePosition += HEADER_BYTES + length;
+
+            Location location = new Location(currentSegment, offset, length, width, height, type);
+            ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_BYTES);
+            record.put(HexFormat.of().parseHex(hashedKey)).putInt(location.segment()).putLong(location.offset())
+                    .putInt(length).putInt(width).putInt(height).putInt(type).flip();
+            while (record.hasRemaining()) {
+                indexChannel.write(record);
+            }
+            index.put(hashedKey, location);
+            recordsPerSegment.merge(currentSegment, 1, Integer::sum);
+        }
+    }
+
+    long sizeBytes() {
+        return mappedSlots * segmentBytes;
+    }
+
+    int entries() {
+        return index.size();
+    }
+
+    // Slot files stay mapped and are reused; emptying the index is enough to forget every frame in them.
+    void clear() throws IOException {
+        synchronized (writeLock) {
+            index.clear();
+            segments.clear();
+            recordsPerSegment.clear();
+            Arrays.fill(slotGenerations, -1);
+            deadRecords = 0;
+            currentSegment++;
+            writePosition = 0;
+            indexChannel.truncate(0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            indexChannel.close();
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (segments.containsKey(currentSegment)) {
+            currentSegment++;
+        }
+        int slot = slotOf(currentSegment);
+        if (slotGenerations[slot] >= 0) {
+            dropSegment(slotGenerations[slot]);
+        }
+        if (slots[slot] == null) {
+            try (FileChannel channel = FileChannel.open(slotPath(slot), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                if (channel.size() > segmentBytes) {
+                    channel.truncate(segmentBytes);
+                }
+                slots[slot] = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+            mappedSlots++;
+        }
+        slotGenerations[slot] = currentSegment;
+        segments.put(currentSegment, slots[slot]);
+        writePosition = 0;
+        if (deadRecords > index.size()) {
+            compactIndex();
+        }
+    }
+
+    // Unpublishes a generation so its slot can be overwritten; readers holding one of its slices see the change.
+    private void dropSegment(int segment) {
+        Integer records = recordsPerSegment.remove(segment);
+        segments.remove(segment);
+        index.values().removeIf(location -> location.segment() == segment);
+        deadRecords += records != null ? records : 0;
+        int slot = slotOf(segment);
+        if (slotGenerations[slot] == segment) {
+            slotGenerations[slot] = -1;
+        }
+    }
+
+    private void compactIndex() throws IOException {
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(INDEX_RECORD_BYTES * Math.max(1, index.size()));
+            index.forEach((key, location) -> buffer.put(HexFormat.of().parseHex(key)).putInt(location.segment())
+                    .putLong(location.offset()).putInt(location.length()).putInt(location.width())
+                    .putInt(location.height()).putInt(location.type()));
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        indexChannel.close();
+        try {
+            Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deadRecords = 0;
+        } finally {
+            indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        Path indexPath = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        long validBytes;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            validBytes = channel.size() - channel.size() % INDEX_RECORD_BYTES;
+            // Read rather than mapped: the index is truncated and replaced later, which a live mapping would block.
+            ByteBuffer records = ByteBuffer.allocate((int) validBytes);
+            while (records.hasRemaining()) {
+                if (channel.read(records) < 0) {
+                    break;
+                }
+            }
+            records.flip();
+            byte[] key = new byte[KEY_BYTES];
+            while (records.remaining() >= INDEX_RECORD_BYTES) {
+                records.get(key);
+                Location location = new Location(records.getInt(), records.getLong(), records.getInt(), records.getInt(),
+                        records.getInt(), records.getInt());
+                int slot = slotOf(location.segment());
+                if (location.segment() < slotGenerations[slot]) {
+                    deadRecords++;
+                    continue;
+                }
+                if (location.segment() > slotGenerations[slot]) {
+                    // A newer generation took the slot over, so whatever the older one held has been overwritten.
+                    if (slotGenerations[slot] >= 0) {
+                        dropSegment(slotGenerations[slot]);
+                    }
+                    if (slots[slot] == null && !openSlot(slot)) {
+                        deadRecords++;
+                        continue;
+                    }
+                    slotGenerations[slot] = location.segment();
+                    segments.put(location.segment(), slots[slot]);
+                }
+                if (index.put(HexFormat.of().formatHex(key), location) != null) {
+                    deadRecords++;
+                }
+                recordsPerSegment.merge(location.segment(), 1, Integer::sum);
+                if (location.segment() > currentSegment || (location.segment() == currentSegment
+                        && location.offset() + HEADER_BYTES + location.length() > writePosition)) {
+                    currentSegment = location.segment();
+                    writePosition = location.offset() + HEADER_BYTES + location.length();
+                }
+            }
+            if (validBytes < channel.size()) {
+                channel.truncate(validBytes);
+            }
+        }
+    }
+
+    private boolean openSlot(int slot) throws IOException {
+        Path path = slotPath(slot);
+        if (!Files.exists(path) || Files.size(path) != segmentBytes) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            slots[slot] = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        mappedSlots++;
+        return true;
+    }
+
+    // Nothing is mapped yet, so segments from an older layout or beyond a smaller size cap can still be deleted.
+    private void deleteStraySegments() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".seg") && !isSlotName(name)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private boolean isSlotName(String name) {
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slotPath(slot).getFileName().toString().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int slotOf(int segment) {
+        return Math.floorMod(segment, slots.length);
+    }
+
+    private Path slotPath(int slot) {
+        return directory.resolve(String.format("frames-slot-%04d.seg", slot));
+    }
+
+    record Location(int segment, long offset, int length, int width, int height, int type) { }
+
+    record Slice(int width, int height, int type, ByteBuffer pixels) { }
+}
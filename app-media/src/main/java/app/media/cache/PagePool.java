@@ -0,0 +1,108 @@
+package app.media.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+// Off-heap memory for FrameCache, carved into fixed-size pages from a few large direct slabs. Pages of an evicted
+// frame go back on a free list for the next one, so direct memory never grows past the cache budget; allocating a
+// buffer per frame instead leaves evicted frames to the GC's cleaners and can overrun MaxDirectMemorySize.
+final class PagePool {
+    static final int PAGE_BYTES = 16 * 1024;
+    private static final int SLAB_PAGES = 1024;
+    private static final int PAGE_INTS = PAGE_BYTES / Integer.BYTES;
+
+    private final int maxPages;
+    // Replaced rather than grown in place, so readers can index it without taking the lock.
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private volatile IntBuffer[] intSlabs = new IntBuffer[0];
+    private int[] free = new int[16];
+    private int freeCount;
+    private int carvedPages;
+
+    PagePool(long maxBytes) {
+        this.maxPages = (int) Math.min(Integer.MAX_VALUE, maxBytes / PAGE_BYTES);
+    }
+
+    static int pagesFor(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + PAGE_BYTES - 1) / PAGE_BYTES);
+    }
+
+    int maxPages() {
+        return maxPages;
+    }
+
+    synchronized long reservedBytes() {
+        return (long) carvedPages * PAGE_BYTES;
+    }
+
+    // Returns null when free pages and the uncarved part of the budget together cannot cover the request.
+    synchronized int[] allocate(int count) {
+        if (count > freeCount + (maxPages - carvedPages)) {
+            return null;
+        }
+        int[] pages = new int[count];
+        int taken = 0;
+        while (taken < count && freeCount > 0) {
+            pages[taken++] = free[--freeCount];
+        }
+        while (taken < count) {
+            if (carvedPages % SLAB_PAGES == 0) {
+                addSlab(Math.min(SLAB_PAGES, maxPages - carvedPages));
+            }
+            pages[taken++] = carvedPages++;
+        }
+        return pages;
+    }
+
+    synchronized void release(int[] pages) {
+        if (freeCount + pages.length > free.length) {
+            free = Arrays.copyOf(free, Math.max(free.length * 2, freeCount + pages.length));
+        }
+        System.arraycopy(pages, 0, free, freeCount, pages.length);
+        freeCount += pages.length;
+    }
+
+    void write(int[] pages, int[] source) {
+        IntBuffer[] views = intSlabs;
+        for (int i = 0, offset = 0; offset < source.length; i++, offset += PAGE_INTS) {
+            views[pages[i] / SLAB_PAGES].put(pages[i] % SLAB_PAGES * PAGE_INTS, source, offset,
+                    Math.min(PAGE_INTS, source.length - offset));
+        }
+    }
+
+    void write(int[] pages, byte[] source) {
+        ByteBuffer[] views = slabs;
+        for (int i = 0, offset = 0; offset < source.length; i++, offset += PAGE_BYTES) {
+            views[pages[i] / SLAB_PAGES].put(pages[i] % SLAB_PAGES * PAGE_BYTES, source, offset,
+                    Math.min(PAGE_BYTES, source.length - offset));
+        }
+    }
+
+    void read(int[] pages, int[] target) {
+        IntBuffer[] views = intSlabs;
+        for (int i = 0, offset = 0; offset < target.length; i++, offset += PAGE_INTS) {
+            views[pages[i] / SLAB_PAGES].get(pages[i] % SLAB_PAGES * PAGE_INTS, target, offset,
+                    Math.min(PAGE_INTS, target.length - offset));
+        }
+    }
+
+    void read(int[] pages, byte[] target) {
+        ByteBuffer[] views = slabs;
+        for (int i = 0, offset = 0; offset < target.length; i++, offset += PAGE_BYTES) {
+            views[pages[i] / SLAB_PAGES].get(pages[i] % SLAB_PAGES * PAGE_BYTES, target, offset,
+                    Math.min(PAGE_BYTES, target.length - offset));
+        }
+    }
+
+    private void addSlab(int pages) {
+        ByteBuffer slab = ByteBuffer.allocateDirect(pages * PAGE_BYTES).order(ByteOrder.nativeOrder());
+        ByteBuffer[] grownSlabs = Arrays.copyOf(slabs, slabs.length + 1);
+        IntBuffer[] grownInts = Arrays.copyOf(intSlabs, intSlabs.length + 1);
+        grownSlabs[grownSlabs.length - 1] = slab;
+        grownInts[grownInts.length - 1] = slab.asIntBuffer();
+        intSlabs = grownInts;
+        slabs = grownSlabs;
+    }
+}
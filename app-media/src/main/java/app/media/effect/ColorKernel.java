@@ -0,0 +1,106 @@
+package app.media.effect;
+
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// The colour parameters of an EffectParameters compiled into one per-pixel pass: tone curve (brightness/contrast),
+// luma-matrix saturation, then the 3D LUT. Each pixel is loaded and stored once however many of them are active.
+// Without a LUT the pass runs on VectorColorKernel when the Vector API is available; the LUT's trilinear lookups
+// stay scalar.
+final class ColorKernel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColorKernel.class);
+    static final boolean VECTORIZED = vectorSupported();
+    private static final int ONE = 1 << 16;
+    private static final int HALF = ONE >> 1;
+
+    private final boolean curve;
+    private final int scale;
+    private final int offset;
+    private final int saturation;
+    private final CubeLut lut;
+
+    private ColorKernel(boolean curve, int scale, int offset, int saturation, CubeLut lut) {
+        this.curve = curve;
+        this.scale = scale;
+        this.offset = offset;
+        this.saturation = saturation;
+        this.lut = lut;
+    }
+
+    // Brightness/contrast is value * (1 + contrast) + brightness * 255, as a RescaleOp would apply it, in 16.16 fixed
+    // point so the scalar and vector paths round identically.
+    static ColorKernel compile(EffectParameters parameters) throws IOException {
+        boolean curve = parameters.brightness() != 0.0 || parameters.contrast() != 0.0;
+        int scale = (int) Math.round((1.0 + parameters.contrast()) * ONE);
+        int offset = (int) Math.round(parameters.brightness() * 255 * ONE);
+        int saturation = (int) Math.round((1.0 + parameters.saturation()) * ONE);
+        CubeLut lut = parameters.lutPath() != null ? CubeLut.load(parameters.lutPath()) : null;
+        return new ColorKernel(curve, scale, offset, saturation, lut);
+    }
+
+    String lutFingerprint() {
+        return lut != null ? lut.fingerprint() : null;
+    }
+
+    boolean isIdentity() {
+        return !curve && saturation == ONE && lut == null;
+    }
+
+    void apply(int[] argb, int from, int to) {
+        if (VECTORIZED && lut == null) {
+            VectorColorKernel.apply(argb, from, to, curve, scale, offset, saturation != ONE, saturation);
+        } else {
+            applyScalar(argb, from, to);
+        }
+    }
+
+    void applyScalar(int[] argb, int from, int to) {
+        applyScalar(argb, from, to, curve, scale, offset, saturation != ONE, saturation, lut);
+    }
+
+    static void applyScalar(int[] argb, int from, int to, boolean curve, int scale, int offset, boolean saturate, int amount) {
+        applyScalar(argb, from, to, curve, scale, offset, saturate, amount, null);
+    }
+
+    private static void applyScalar(int[] argb, int from, int to, boolean curve, int scale, int offset, boolean saturate,
+                                    int amount, CubeLut cube) {
+        for (int i = from; i < to; i++) {
+            int pixel = argb[i];
+            int red = (pixel >>> 16) & 0xFF;
+            int green = (pixel >>> 8) & 0xFF;
+            int blue = pixel & 0xFF;
+            if (curve) {
+                red = PixelKernels.clamp((red * scale + offset + HALF) >> 16);
+                green = PixelKernels.clamp((green * scale + offset + HALF) >> 16);
+                blue = PixelKernels.clamp((blue * scale + offset + HALF) >> 16);
+            }
+            if (saturate) {
+                // (1 - s) * luma + s * rgb, written as each channel's scaled distance from luma.
+                int luma = (red * PixelKernels.LUMA_RED + green * PixelKernels.LUMA_GREEN + blue * PixelKernels.LUMA_BLUE + HALF) >> 16;
+                red = PixelKernels.clamp(luma + (((red - luma) * amount + HALF) >> 16));
+                green = PixelKernels.clamp(luma + (((green - luma) * amount + HALF) >> 16));
+                blue = PixelKernels.clamp(luma + (((blue - luma) * amount + HALF) >> 16));
+            }
+            int rgb = cube != null ? cube.apply(red, green, blue) : red << 16 | green << 8 | blue;
+            argb[i] = (pixel & 0xFF000000) | rgb;
+        }
+    }
+
+    // The vector classes only resolve when the JVM runs with --add-modules jdk.incubator.vector; setting
+    // montage.effects.scalar forces the scalar loop.
+    private static boolean vectorSupported() {
+        if (Boolean.getBoolean("montage.effects.scalar")) {
+            return false;
+        }
+        try {
+            boolean usable = VectorColorKernel.usable();
+            LOGGER.info(usable ? "Colour effects use " + VectorColorKernel.lanes() + "-lane Vector API kernels"
+                    : "Vector API too narrow on this CPU, colour effects use scalar kernels");
+            return usable;
+        } catch (LinkageError e) {
+            LOGGER.info("Vector API not available, colour effects use scalar kernels");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package app.media.effect;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+// A 3D colour lookup table in the Adobe/Resolve .cube format, sampled with trilinear interpolation.
+final class CubeLut {
+    private static final int MAX_SIZE = 256;
+
+    private final int size;
+    // Interleaved RGB output values, red index varying fastest, already mapped to 0..255.
+    private final float[] table;
+    private final float domainMin;
+    private final float domainScale;
+    private final String fingerprint;
+
+    private CubeLut(int size, float[] table, float domainMin, float domainMax) {
+        this.size = size;
+        this.table = table;
+        this.domainMin = domainMin;
+        this.domainScale = (size - 1) / (domainMax - domainMin) / 255f;
+        this.fingerprint = fingerprint(table, domainMin, domainScale);
+    }
+
+    static CubeLut load(Path path) throws IOException {
+        int size = 0;
+        float[] domainMin = {0f, 0f, 0f};
+        float[] domainMax = {1f, 1f, 1f};
+        float[] table = null;
+        int filled = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                String keyword = parts[0].toUpperCase(Locale.ROOT);
+                switch (keyword) {
+                    case "TITLE" -> { }
+                    case "LUT_1D_SIZE" -> throw new IOException("1D LUTs are not supported: " + path);
+                    case "LUT_3D_SIZE" -> {
+                        size = parseInt(parts, path, lineNumber);
+                        if (size < 2 || size > MAX_SIZE) {
+                            throw new IOException("Unsupported LUT_3D_SIZE " + size + " in " + path);
+                        }
+                        table = new float[size * size * size * 3];
+                    }
+                    case "DOMAIN_MIN" -> domainMin = parseTriple(parts, 1, path, lineNumber);
+                    case "DOMAIN_MAX" -> domainMax = parseTriple(parts, 1, path, lineNumber);
+                    // The Resolve spelling of the domain: one min/max pair shared by all three channels.
+                    case "LUT_3D_INPUT_RANGE" -> {
+                        float[] range = parseFloats(parts, 1, 2, path, lineNumber);
+                        domainMin = new float[] {range[0], range[0], range[0]};
+                        domainMax = new float[] {range[1], range[1], range[1]};
+                    }
+                    default -> {
+                        // Other keywords (LUT_1D_INPUT_RANGE, vendor extensions) say nothing about the 3D table.
+                        if (!isNumber(parts[0])) {
+                            continue;
+                        }
+                        if (table == null) {
+                            throw new IOException("LUT data before LUT_3D_SIZE at " + path + ":" + lineNumber);
+                        }
+                        if (filled == table.length) {
+                            throw new IOException("Too many LUT entries at " + path + ":" + lineNumber);
+                        }
+                        float[] rgb = parseTriple(parts, 0, path, lineNumber);
+                        table[filled++] = rgb[0] * 255f;
+                        table[filled++] = rgb[1] * 255f;
+                        table[filled++] = rgb[2] * 255f;
+                    }
+                }
+            }
+        }
+        if (table == null || filled != table.length) {
+            throw new IOException("Incomplete 3D LUT in " + path);
+        }
+        if (domainMin[0] != domainMin[1] || domainMin[0] != domainMin[2] || domainMax[0] != domainMax[1]
+                || domainMax[0] != domainMax[2] || domainMax[0] <= domainMin[0]) {
+            throw new IOException("Unsupported LUT domain in " + path);
+        }
+        return new CubeLut(size, table, domainMin[0], domainMax[0]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Digest of the parsed table, so render caches notice a LUT edited in place under the same path.
+    String fingerprint() {
+        return fingerprint;
+    }
+
+    // Maps one 0..255 RGB triple through the cube and returns the packed RGB result.
+    int apply(int red, int green, int blue) {
+        float r = position(red);
+        float g = position(green);
+        float b = position(blue);
+        int r0 = Math.min((int) r, size - 2);
+        int g0 = Math.min((int) g, size - 2);
+        int b0 = Math.min((int) b, size - 2);
+        float fr = r - r0;
+        float fg = g - g0;
+        float fb = b - b0;
+        int base = ((b0 * size + g0) * size + r0) * 3;
+        int dr = 3;
+        int dg = size * 3;
+        int db = size * size * 3;
+        int packed = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            int i = base + channel;
+            float c00 = lerp(table[i], table[i + dr], fr);
+            float c10 = lerp(table[i + dg], table[i + dg + dr], fr);
+            float c01 = lerp(table[i + db], table[i + db + dr], fr);
+            float c11 = lerp(table[i + db + dg], table[i + db + dg + dr], fr);
+            float value = lerp(lerp(c00, c10, fg), lerp(c01, c11, fg), fb);
+            packed = packed << 8 | PixelKernels.clamp((int) (value + 0.5f));
+        }
+        return packed;
+    }
+
+    private float position(int value) {
+        float position = (value - domainMin * 255f) * domainScale;
+        return position <= 0f ? 0f : Math.min(position, size - 1);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    private static int parseInt(String[] parts, Path path, int lineNumber) throws IOException {
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException("Malformed LUT line at " + path + ":" + lineNumber, e);
+        }
+    }
+
+    private static float[] parseTriple(String[] parts, int from, Path path, int lineNumber) throws IOException {
+        return parseFloats(parts, from, 3, path, lineNumber);
+    }
+
+    private static float[] parseFloats(String[] parts, int from, int count, Path path, int lineNumber) throws IOException {
+        if (parts.length != from + count) {
+            throw new IOException("Malformed LUT line at " + path + ":" + lineNumber);
+        }
+        float[] values = new float[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                values[i] = Float.parseFloat(parts[from + i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed LUT line at " + path + ":" + lineNumber, e);
+        }
+        return values;
+    }
+
+    private static boolean isNumber(String token) {
+        char first = token.charAt(0);
+        return Character.isDigit(first) || first == '-' || first == '+' || first == '.';
+    }
+
+    private static String fingerprint(float[] table, float domainMin, float domainScale) {
+        ByteBuffer bytes = ByteBuffer.allocate((table.length + 2) * Float.BYTES);
+        bytes.putFloat(domainMin).putFloat(domainScale);
+        bytes.asFloatBuffer().put(table);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(bytes.array()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
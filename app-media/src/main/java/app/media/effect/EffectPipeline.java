@@ -6,14 +6,27 @@ import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.awt.image.RescaleOp;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.imageio.ImageIO;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
@@ -25,18 +38,51 @@ import org.slf4j.LoggerFactory;
 
 public class EffectPipeline {
     private static final Logger LOGGER = LoggerFactory.getLogger(EffectPipeline.class);
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    // Frames in flight between decode and encode; each one holds a full-size ARGB raster.
+    private static final int FRAMES_IN_FLIGHT = 4;
+    private static final int QUEUE_CAPACITY = 8;
+    // Roughly 256 KiB of pixels per colour tile, so a 1080p frame splits into about thirty row bands.
+    private static final int TILE_PIXELS = 64 * 1024;
+    private static final Work END = new Work(null, null, null);
 
     private final EffectParameters parameters;
     private final List<EffectPlugin> plugins = new ArrayList<>();
+    private final ColorKernel colorKernel;
+    // One working raster per thread, reused from frame to frame while the size stays the same.
+    private final ThreadLocal<BufferedImage> workingImage = new ThreadLocal<>();
 
     public EffectPipeline(EffectParameters parameters) {
         this.parameters = Objects.requireNonNull(parameters, "parameters");
+        try {
+            this.colorKernel = ColorKernel.compile(parameters);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot load LUT " + parameters.lutPath(), e);
+        }
     }
 
     public void addPlugin(EffectPlugin plugin) {
         plugins.add(Objects.requireNonNull(plugin, "plugin"));
     }
 
+    // Null when a plugin cannot say what it does, since its output could then change without the key changing. The
+    // parameters only name the LUT file, so the loaded table's digest stands in for its contents.
+    public String cacheKey() {
+        StringBuilder key = new StringBuilder(parameters.toString());
+        String lut = colorKernel.lutFingerprint();
+        if (lut != null) {
+            key.append("|lut=").append(lut);
+        }
+        for (EffectPlugin plugin : plugins) {
+            String pluginKey = plugin.cacheKey();
+            if (pluginKey == null) {
+                return null;
+            }
+            key.append('|').append(plugin.getClass().getName()).append('=').append(pluginKey);
+        }
+        return key.toString();
+    }
+
     public void process(Path input, Path output) throws IOException {
         Objects.requireNonNull(input, "input");
         Objects.requireNonNull(output, "output");
@@ -46,6 +92,9 @@ public class EffectPipeline {
         if (output.getParent() != null) {
             Files.createDirectories(output.getParent());
         }
+        if (isPassthrough() && streamCopy(input, output)) {
+            return;
+        }
 
         try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(input.toFile())) {
             grabber.start();
@@ -65,17 +114,10 @@ public class EffectPipeline {
                 recorder.setAudioChannels(grabber.getAudioChannels());
                 recorder.start();
 
-                Java2DFrameConverter converter = new Java2DFrameConverter();
-                Frame frame;
-                while ((frame = grabber.grab()) != null) {
-                    if (frame.image != null) {
-                        BufferedImage image = converter.getBufferedImage(frame);
-                        BufferedImage processed = applyEffects(image);
-                        recorder.record(converter.convert(processed));
-                    } else if (frame.samples != null) {
-                        applyDucking(frame);
-                        recorder.record(frame);
-                    }
+                if (changesVideo()) {
+                    runStages(grabber, recorder, width, height);
+                } else {
+                    copyFrames(grabber, recorder);
                 }
                 recorder.stop();
             }
@@ -85,59 +127,249 @@ public class EffectPipeline {
         }
     }
 
-    private BufferedImage applyEffects(BufferedImage source) {
-        BufferedImage working = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = working.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-        g2d.drawImage(source, 0, 0, null);
-        g2d.dispose();
+    // False when no colour, title or plugin stage would alter a frame, so frames can bypass the Java2D round trip.
+    public boolean changesVideo() {
+        return !colorKernel.isIdentity() || hasTitle() || !plugins.isEmpty();
+    }
 
-        applyBrightnessContrast(working, parameters.brightness(), parameters.contrast());
-        applySaturation(working, parameters.saturation());
-        if (parameters.titleText() != null && !parameters.titleText().isBlank()) {
-            overlayTitle(working, parameters.titleText(), parameters.titleOpacity());
+    // True when neither pictures nor sound would change, so process() can copy the input as it is.
+    public boolean isPassthrough() {
+        return !changesVideo() && parameters.audioDuckingDb() == 0.0;
+    }
+
+    // The returned image may be the pipeline's working buffer, which the next call on the same thread overwrites, or
+    // the source itself when no effect would touch it.
+    // Runs on the calling thread only; callers such as the render backend already spread segments across cores.
+    public BufferedImage apply(BufferedImage source) {
+        Objects.requireNonNull(source, "source");
+        if (!changesVideo()) {
+            return source;
         }
-        if (parameters.lutPath() != null) {
-            LOGGER.warn("3D LUT application not implemented yet: {}", parameters.lutPath());
+        BufferedImage working = workingImage(source.getWidth(), source.getHeight());
+        PixelKernels.copyInto(source, working);
+        return applyEffects(working, false);
+    }
+
+    private boolean hasTitle() {
+        return parameters.titleText() != null && !parameters.titleText().isBlank();
+    }
+
+    // Remuxes the compressed packets into the output without decoding. Returns false, leaving no output behind, when
+    // the input's streams cannot go into an MP4 as they are; process() then decodes and re-encodes instead.
+    private static boolean streamCopy(Path input, Path output) throws IOException {
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(input.toFile())) {
+            grabber.start();
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), grabber.getImageWidth(),
+                    grabber.getImageHeight(), grabber.getAudioChannels())) {
+                recorder.setFormat("mp4");
+                recorder.start(grabber.getFormatContext());
+                AVPacket packet;
+                while ((packet = grabber.grabPacket()) != null) {
+                    recorder.recordPacket(packet);
+                }
+                recorder.stop();
+            }
+            grabber.stop();
+            LOGGER.debug("No effects to apply, stream-copied {} to {}", input, output);
+            return true;
+        } catch (FFmpegFrameGrabber.Exception | FFmpegFrameRecorder.Exception e) {
+            LOGGER.debug("Cannot stream-copy {} into MP4, re-encoding instead: {}", input, e.getMessage());
+            Files.deleteIfExists(output);
+            return false;
         }
+    }
 
-        for (EffectPlugin plugin : plugins) {
+    // Video needs no effects but the packets could not be copied (or audio is being processed): decoded frames go
+    // straight to the encoder without the Java2D round trip.
+    private void copyFrames(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder)
+            throws FFmpegFrameGrabber.Exception, FFmpegFrameRecorder.Exception {
+        Frame frame;
+        while ((frame = grabber.grab()) != null) {
+            if (frame.samples != null) {
+                applyDucking(frame);
+            }
+            if (frame.image != null || frame.samples != null) {
+                recorder.record(frame);
+            }
+        }
+    }
+
+    // Decode, effects and encode each run on their own thread, handing frames on through bounded FIFO queues so output
+    // order matches input order. Decoded pictures are copied into a small pool of ARGB rasters that the encode stage
+    // hands back once a frame is written, which caps memory at FRAMES_IN_FLIGHT frames.
+    private void runStages(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder, int width, int height)
+            throws IOException {
+        BlockingQueue<BufferedImage> free = new ArrayBlockingQueue<>(FRAMES_IN_FLIGHT);
+        for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+            free.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+        }
+        BlockingQueue<Work> decoded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Work> processed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        ExecutorService stages = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "montage-effects-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<?> effects = stages.submit(() -> {
+                Work work;
+                while ((work = decoded.take()) != END) {
+                    processed.put(work.image() != null ? work.withImage(applyEffects(work.image(), true)) : work);
+                }
+                processed.put(END);
+                return null;
+            });
+            Future<?> encoder = stages.submit(() -> {
+                Java2DFrameConverter converter = new Java2DFrameConverter();
+                Frame bgr = new Frame(width, height, Frame.DEPTH_UBYTE, 3);
+                Work work;
+                while ((work = processed.take()) != END) {
+                    if (work.audio() != null) {
+                        recorder.record(work.audio());
+                        continue;
+                    }
+                    BufferedImage image = work.image();
+                    if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getWidth() == width && image.getHeight() == height) {
+                        copyToBgr(PixelKernels.pixels(image), bgr, width, height);
+                        recorder.record(bgr);
+                    } else {
+                        recorder.record(converter.convert(image));
+                    }
+                    free.put(work.pooled());
+                }
+                return null;
+            });
+            List<Future<?>> running = List.of(effects, encoder);
+
+            Java2DFrameConverter converter = new Java2DFrameConverter();
+            Frame frame;
+            while ((frame = grabber.grab()) != null) {
+                if (frame.image != null) {
+                    BufferedImage pooled = awaitTake(free, running);
+                    PixelKernels.copyInto(converter.getBufferedImage(frame), pooled);
+                    awaitPut(decoded, new Work(pooled, pooled, null), running);
+                } else if (frame.samples != null) {
+                    Frame audio = frame.clone();
+                    applyDucking(audio);
+                    awaitPut(decoded, new Work(null, null, audio), running);
+                }
+            }
+            awaitPut(decoded, END, running);
+            for (Future<?> stage : running) {
+                stage.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Effect pipeline stage failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Effect processing interrupted");
+        } finally {
+            stages.shutdownNow();
+            awaitStages(stages);
+        }
+    }
+
+    // The recorder is closed as soon as runStages returns, so the encoder has to be out of record() first. A stage in
+    // native code does not notice the interrupt; it only stops when that call returns, and that is waited for.
+    private static void awaitStages(ExecutorService stages) {
+        boolean interrupted = false;
+        while (true) {
             try {
-                working = plugin.apply(working);
-            } catch (Exception e) {
-                LOGGER.warn("Effect plugin {} failed: {}", plugin.getClass().getSimpleName(), e.getMessage());
+                if (stages.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+                LOGGER.debug("Waiting for effect pipeline stages to stop");
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
         }
-        return working;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private static void applyBrightnessContrast(BufferedImage image, double brightness, double contrast) {
-        if (brightness == 0.0 && contrast == 0.0) {
-            return;
+    // The decode stage must not block forever on a queue whose consumer has died, so waits are sliced and each slice
+    // checks whether a downstream stage has already finished (which before END can only mean it failed).
+    private static <T> void awaitPut(BlockingQueue<T> queue, T item, List<Future<?>> stages)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(item, 50, TimeUnit.MILLISECONDS)) {
+            checkStages(stages);
         }
-        float scale = (float) (1.0 + contrast);
-        float offset = (float) (brightness * 255);
-        RescaleOp op = new RescaleOp(new float[]{scale, scale, scale, 1.0f}, new float[]{offset, offset, offset, 0f}, null);
-        op.filter(image, image);
     }
 
-    private static void applySaturation(BufferedImage image, double saturation) {
-        if (saturation == 0.0) {
-            return;
+    private static <T> T awaitTake(BlockingQueue<T> queue, List<Future<?>> stages)
+            throws InterruptedException, ExecutionException {
+        T item;
+        while ((item = queue.poll(50, TimeUnit.MILLISECONDS)) == null) {
+            checkStages(stages);
+        }
+        return item;
+    }
+
+    private static void checkStages(List<Future<?>> stages) throws InterruptedException, ExecutionException {
+        for (Future<?> stage : stages) {
+            if (stage.isDone()) {
+                stage.get();
+                throw new CancellationException("Effect pipeline stage stopped early");
+            }
+        }
+    }
+
+    private static void copyToBgr(int[] argb, Frame frame, int width, int height) {
+        ByteBuffer out = (ByteBuffer) frame.image[0];
+        int stride = frame.imageStride;
+        for (int y = 0; y < height; y++) {
+            int row = y * stride;
+            int from = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[from + x];
+                int at = row + x * 3;
+                out.put(at, (byte) pixel);
+                out.put(at + 1, (byte) (pixel >>> 8));
+                out.put(at + 2, (byte) (pixel >>> 16));
+            }
+        }
+    }
+
+    private BufferedImage applyEffects(BufferedImage working, boolean tiled) {
+        if (!colorKernel.isIdentity()) {
+            int[] pixels = PixelKernels.pixels(working);
+            int width = working.getWidth();
+            int rowsPerTile = Math.max(1, TILE_PIXELS / width);
+            if (tiled && working.getHeight() > rowsPerTile) {
+                ForkJoinPool.commonPool().invoke(new ColorTiles(pixels, width, 0, working.getHeight(), rowsPerTile));
+            } else {
+                colorKernel.apply(pixels, 0, pixels.length);
+            }
         }
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int argb = image.getRGB(x, y);
-                int alpha = (argb >> 24) & 0xFF;
-                int red = (argb >> 16) & 0xFF;
-                int green = (argb >> 8) & 0xFF;
-                int blue = argb & 0xFF;
-                float[] hsb = Color.RGBtoHSB(red, green, blue, null);
-                hsb[1] = clamp((float) (hsb[1] * (1.0 + saturation)), 0f, 1f);
-                int rgb = Color.HSBtoRGB(hsb[0], hsb[1], hsb[2]);
-                image.setRGB(x, y, (alpha << 24) | (rgb & 0xFFFFFF));
+        if (hasTitle()) {
+            overlayTitle(working, parameters.titleText(), parameters.titleOpacity());
+        }
+
+        for (EffectPlugin plugin : plugins) {
+            try {
+                working = plugin.apply(working);
+            } catch (Exception e) {
+                LOGGER.warn("Effect plugin {} failed: {}", plugin.getClass().getSimpleName(), e.getMessage());
             }
         }
+        return working;
+    }
+
+    private BufferedImage workingImage(int width, int height) {
+        BufferedImage working = workingImage.get();
+        if (working == null || working.getWidth() != width || working.getHeight() != height) {
+            working = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            workingImage.set(working);
+        }
+        return working;
     }
 
     private static void overlayTitle(BufferedImage image, String text, double opacity) {
@@ -161,5 +393,41 @@ public class EffectPipeline {
     private static float clamp(float value, float min, float max) {
         return Math.max(min, Math.min(max, value));
     }
+
+    // Splits a frame into bands of whole rows until each band is at most one tile.
+    private final class ColorTiles extends RecursiveAction {
+        private final int[] pixels;
+        private final int width;
+        private final int fromRow;
+        private final int toRow;
+        private final int rowsPerTile;
+
+        private ColorTiles(int[] pixels, int width, int fromRow, int toRow, int rowsPerTile) {
+            this.pixels = pixels;
+            this.width = width;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerTile = rowsPerTile;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= rowsPerTile) {
+                colorKernel.apply(pixels, fromRow * width, toRow * width);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new ColorTiles(pixels, width, fromRow, middle, rowsPerTile),
+                    new ColorTiles(pixels, width, middle, toRow, rowsPerTile));
+        }
+    }
+
+    // One item on a stage queue: a video frame (the pooled raster and the image to encode, which a plugin may have
+    // replaced) or an audio frame.
+    private record Work(BufferedImage pooled, BufferedImage image, Frame audio) {
+        Work withImage(BufferedImage replaced) {
+            return new Work(pooled, replaced, audio);
+        }
+    }
 }
 
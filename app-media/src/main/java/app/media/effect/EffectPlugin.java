@@ -4,4 +4,9 @@ import java.awt.image.BufferedImage;
 
 public interface EffectPlugin {
     BufferedImage apply(BufferedImage input) throws Exception;
+
+    // Identifies the plugin and its settings for the render cache; null keeps effect outputs out of the cache.
+    default String cacheKey() {
+        return null;
+    }
 }
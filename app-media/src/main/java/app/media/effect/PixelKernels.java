@@ -0,0 +1,64 @@
+package app.media.effect;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+
+// Raster helpers for the packed ARGB working images the colour kernels run on.
+final class PixelKernels {
+    // Rec. 709 luma weights in 16.16 fixed point; they sum to 1 << 16.
+    static final int LUMA_RED = 13933;
+    static final int LUMA_GREEN = 46871;
+    static final int LUMA_BLUE = 4732;
+
+    private PixelKernels() {
+    }
+
+    // Copies source into target, which must be a TYPE_INT_ARGB image of the same size. BGR and RGB rasters (what the
+    // frame converter produces) are read directly; anything else goes through getRGB one row at a time.
+    static void copyInto(BufferedImage source, BufferedImage target) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] out = pixels(target);
+        int type = source.getType();
+        if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) && isPacked(source, width, height)) {
+            int[] in = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+            if (type == BufferedImage.TYPE_INT_ARGB) {
+                System.arraycopy(in, 0, out, 0, width * height);
+            } else {
+                for (int i = 0; i < width * height; i++) {
+                    out[i] = 0xFF000000 | in[i];
+                }
+            }
+            return;
+        }
+        if (type == BufferedImage.TYPE_3BYTE_BGR && source.getSampleModel() instanceof PixelInterleavedSampleModel model
+                && model.getScanlineStride() == width * 3 && model.getPixelStride() == 3
+                && source.getRaster().getSampleModelTranslateX() == 0 && source.getRaster().getSampleModelTranslateY() == 0) {
+            byte[] in = ((DataBufferByte) source.getRaster().getDataBuffer()).getData();
+            int offset = source.getRaster().getDataBuffer().getOffset();
+            for (int i = 0, p = offset; i < width * height; i++, p += 3) {
+                out[i] = 0xFF000000 | (in[p + 2] & 0xFF) << 16 | (in[p + 1] & 0xFF) << 8 | (in[p] & 0xFF);
+            }
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            source.getRGB(0, y, width, 1, out, y * width, width);
+        }
+    }
+
+    static int[] pixels(BufferedImage argbImage) {
+        return ((DataBufferInt) argbImage.getRaster().getDataBuffer()).getData();
+    }
+
+    private static boolean isPacked(BufferedImage image, int width, int height) {
+        return image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0
+                && image.getRaster().getDataBuffer().getOffset() == 0
+                && image.getRaster().getDataBuffer().getSize() == width * height;
+    }
+
+    static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(255, value);
+    }
+}
@@ -1,8 +1,11 @@
 package app.media.export;
 
+import app.render.ProgressReporter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
@@ -23,15 +26,11 @@ public class MediaExporter {
         try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(request.input().toFile())) {
             grabber.start();
 
-            int sourceWidth = Math.max(1, grabber.getImageWidth());
-            int sourceHeight = Math.max(1, grabber.getImageHeight());
             double frameRate = grabber.getVideoFrameRate();
             if (frameRate <= 0.0) {
                 frameRate = grabber.getFrameRate() > 0 ? grabber.getFrameRate() : 30.0;
             }
 
-            int width = request.widthOrDefault(sourceWidth);
-            int height = request.heightOrDefault(sourceHeight);
             double targetFrameRate = request.frameRateOrDefault(frameRate);
             long totalFrames = grabber.getLengthInFrames();
             if (totalFrames <= 0) {
@@ -41,22 +40,9 @@ public class MediaExporter {
                 }
             }
 
-            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(request.output().toFile(), width, height, grabber.getAudioChannels())) {
-                recorder.setFormat("mp4");
-                recorder.setFrameRate(targetFrameRate);
-                recorder.setGopSize((int) Math.max(1, Math.round(targetFrameRate * 2)));
-                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                recorder.setVideoBitrate(request.preset().videoBitrate());
-                recorder.setOption("preset", request.preset().ffmpegPreset());
-                recorder.setOption("crf", Integer.toString(request.preset().crf()));
-                recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
-
-                recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-                recorder.setAudioBitrate(request.preset().audioBitrate());
-                int audioChannels = Math.max(1, grabber.getAudioChannels());
-                recorder.setAudioChannels(audioChannels);
-                recorder.setSampleRate(grabber.getSampleRate() > 0 ? grabber.getSampleRate() : 48_000);
-
+            ProgressReporter reporter = new ProgressReporter(snapshot -> progressListener.onProgress(snapshot.progress()));
+            reporter.setTotal(totalFrames);
+            try (FFmpegFrameRecorder recorder = createRecorder(request, request.output(), grabber)) {
                 recorder.start();
                 long processedFrames = 0;
                 Frame frame;
@@ -64,17 +50,58 @@ public class MediaExporter {
                     recorder.record(frame);
                     if (frame.image != null && totalFrames > 0) {
                         processedFrames++;
-                        double progress = Math.min(1.0, processedFrames / (double) totalFrames);
-                        progressListener.onProgress(progress);
+                        reporter.update(Math.min(processedFrames, totalFrames));
                     }
                 }
                 recorder.stop();
             }
 
             grabber.stop();
-            progressListener.onProgress(1.0);
+            reporter.setTotal(Math.max(1, totalFrames));
+            reporter.update(Math.max(1, totalFrames));
+            reporter.flush();
         } catch (FFmpegFrameGrabber.Exception | FFmpegFrameRecorder.Exception e) {
             throw new IOException("Failed to export media", e);
         }
     }
+
+    public void exportSegmented(MediaExportRequest request, Duration start, Duration end, int workers,
+                                ProgressReporter reporter) throws IOException {
+        Objects.requireNonNull(request, "request");
+        Objects.requireNonNull(start, "start");
+        Objects.requireNonNull(end, "end");
+        SegmentedExporter exporter = new SegmentedExporter(workers);
+        List<Long> keyframes = SegmentedExporter.keyframeTimestamps(request.input());
+        List<SegmentedExporter.Chunk> chunks = SegmentedExporter.planChunks(request.input(), keyframes,
+                start.toNanos() / 1_000, end.toNanos() / 1_000, workers);
+        exporter.export(chunks, "mp4", (output, grabber) -> createRecorder(request, output, grabber),
+                request.output(), reporter, null);
+    }
+
+    private static FFmpegFrameRecorder createRecorder(MediaExportRequest request, Path output, FFmpegFrameGrabber grabber) {
+        int width = request.widthOrDefault(Math.max(1, grabber.getImageWidth()));
+        int height = request.heightOrDefault(Math.max(1, grabber.getImageHeight()));
+        double frameRate = grabber.getVideoFrameRate();
+        if (frameRate <= 0.0) {
+            frameRate = grabber.getFrameRate() > 0 ? grabber.getFrameRate() : 30.0;
+        }
+        double targetFrameRate = request.frameRateOrDefault(frameRate);
+
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), width, height, grabber.getAudioChannels());
+        recorder.setFormat("mp4");
+        recorder.setFrameRate(targetFrameRate);
+        recorder.setGopSize((int) Math.max(1, Math.round(targetFrameRate * 2)));
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setVideoBitrate(request.preset().videoBitrate());
+        recorder.setOption("preset", request.preset().ffmpegPreset());
+        recorder.setOption("crf", Integer.toString(request.preset().crf()));
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+        recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+        recorder.setAudioBitrate(request.preset().audioBitrate());
+        int audioChannels = Math.max(1, grabber.getAudioChannels());
+        recorder.setAudioChannels(audioChannels);
+        recorder.setSampleRate(grabber.getSampleRate() > 0 ? grabber.getSampleRate() : 48_000);
+        return recorder;
+    }
 }
@@ -0,0 +1,422 @@
+package app.media.export;
+
+import app.render.ProgressReporter;
+import app.render.RenderTaskContext;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SegmentedExporter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentedExporter.class);
+    private static final long MIN_CHUNK_MICROS = 2_000_000L;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final int workers;
+
+    public SegmentedExporter(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be > 0");
+        }
+        this.workers = workers;
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    public void export(List<Chunk> chunks, String format, RecorderFactory recorderFactory, Path output,
+                       ProgressReporter reporter, RenderTaskContext context) throws IOException {
+        Objects.requireNonNull(chunks, "chunks");
+        Objects.requireNonNull(format, "format");
+        Objects.requireNonNull(recorderFactory, "recorderFactory");
+        Objects.requireNonNull(output, "output");
+        if (chunks.isEmpty()) {
+            throw new IllegalArgumentException("chunks must not be empty");
+        }
+        ProgressReporter progress = reporter != null ? reporter : new ProgressReporter(null);
+        RenderTaskContext cancellation = context != null ? context : new RenderTaskContext(null);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Path chunkDir = output.resolveSibling("." + output.getFileName() + ".chunks");
+        Files.createDirectories(chunkDir);
+        String extension = extensionOf(output);
+        progress.setTotal(chunks.stream().mapToLong(Chunk::lengthMillis).sum());
+
+        List<Path> chunkFiles = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkFiles.add(chunkDir.resolve(String.format("chunk-%04d.%s", i, extension)));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, chunks.size()), runnable -> {
+            Thread thread = new Thread(runnable, "montage-export-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                int index = i;
+                futures.add(completion.submit(() -> {
+                    Chunk chunk = chunks.get(index);
+                    Path chunkFile = chunkFiles.get(index);
+                    String key = checkpointKey(chunk, chunkFile);
+                    if (cancellation.checkpoints().isComplete(key)) {
+                        progress.increment(chunk.lengthMillis());
+                        return index;
+                    }
+                    encodeChunk(chunk, recorderFactory, chunkFile, progress, cancellation);
+                    cancellation.checkpoints().record(key, List.of(chunkFile));
+                    return index;
+                }));
+            }
+            try {
+                for (int i = 0; i < chunks.size(); i++) {
+                    int index = completion.take().get();
+                    LOGGER.debug("Chunk {}/{} of {} encoded", index + 1, chunks.size(), output.getFileName());
+                }
+            } catch (ExecutionException e) {
+                cancellation.cancel();
+                futures.forEach(future -> future.cancel(true));
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+                if (cause instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw new IOException("Failed to encode chunk", cause);
+            } catch (InterruptedException e) {
+                cancellation.cancel();
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Segmented export interrupted");
+            }
+            concatenate(chunks, chunkFiles, format, output, cancellation);
+            FileUtils.deleteQuietly(chunkDir.toFile());
+            progress.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Finished chunks are kept on failure so a resumed render can reuse them; the key ties a chunk to its input file.
+    private static String checkpointKey(Chunk chunk, Path chunkFile) throws IOException {
+        Path input = chunk.input().toAbsolutePath();
+        return "chunk:" + chunkFile.toAbsolutePath() + ":" + input + ":" + Files.size(input) + ":"
+                + Files.getLastModifiedTime(input).toMillis() + ":" + chunk.startMicros() + "-" + chunk.endMicros();
+    }
+
+    public static List<Long> keyframeTimestamps(Path input) throws IOException {
+        List<Long> keyframes = new ArrayList<>();
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(input.toFile())) {
+            grabber.start();
+            AVFormatContext context = grabber.getFormatContext();
+            int videoStream = grabber.getVideoStream();
+            if (videoStream < 0) {
+                return keyframes;
+            }
+            AVRational timeBase = context.streams(videoStream).time_base();
+            long startTime = context.start_time() != avutil.AV_NOPTS_VALUE ? context.start_time() : 0;
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                if (packet.stream_index() == videoStream && (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0
+                        && packet.pts() != avutil.AV_NOPTS_VALUE) {
+                    keyframes.add(packet.pts() * 1_000_000L * timeBase.num() / timeBase.den() - startTime);
+                }
+            }
+            grabber.stop();
+        } catch (FFmpegFrameGrabber.Exception e) {
+            throw new IOException("Failed to scan keyframes of " + input, e);
+        }
+        keyframes.sort(Long::compare);
+        return keyframes;
+    }
+
+    public static List<Chunk> planChunks(Path input, List<Long> keyframes, long startMicros, long endMicros, int count) {
+        if (endMicros <= startMicros) {
+            throw new IllegalArgumentException("end must be after start");
+        }
+        long span = endMicros - startMicros;
+        int chunkCount = (int) Math.max(1, Math.min(count, span / MIN_CHUNK_MICROS));
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(startMicros);
+        int cursor = 0;
+        for (int i = 1; i < chunkCount; i++) {
+            long target = startMicros + span * i / chunkCount;
+            while (cursor < keyframes.size() && keyframes.get(cursor) < target) {
+                cursor++;
+            }
+            if (cursor >= keyframes.size()) {
+                break;
+            }
+            long boundary = keyframes.get(cursor);
+            if (boundary >= endMicros) {
+                break;
+            }
+            if (boundary > boundaries.get(boundaries.size() - 1)) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(endMicros);
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.size(); i++) {
+            chunks.add(new Chunk(input, boundaries.get(i), boundaries.get(i + 1)));
+        }
+        return chunks;
+    }
+
+    private static void encodeChunk(Chunk chunk, RecorderFactory recorderFactory, Path output,
+                                    ProgressReporter progress, RenderTaskContext context) throws IOException {
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(chunk.input().toFile())) {
+            grabber.start();
+            if (chunk.startMicros() > 0) {
+                grabber.setTimestamp(chunk.startMicros());
+            }
+            try (FFmpegFrameRecorder recorder = recorderFactory.create(output, grabber)) {
+                recorder.start();
+                long reportedMillis = 0;
+                // Audio usually decodes a little ahead of video, so each stream ends on its own and the chunk is done
+                // only once both have passed the boundary; stopping at the first late frame would drop video.
+                boolean videoDone = grabber.getVideoStream() < 0;
+                boolean audioDone = grabber.getAudioStream() < 0;
+                boolean audioStarted = false;
+                Frame frame;
+                while (!(videoDone && audioDone) && (frame = grabber.grab()) != null) {
+                    context.checkCancelled();
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new CancellationException("Chunk encoding interrupted");
+                    }
+                    boolean video = frame.image != null;
+                    if (video ? videoDone : audioDone) {
+                        continue;
+                    }
+                    long timestamp = grabber.getTimestamp();
+                    if (timestamp >= chunk.endMicros()) {
+                        if (video) {
+                            videoDone = true;
+                        } else if (frame.samples != null) {
+                            audioDone = true;
+                        }
+                        continue;
+                    }
+                    if (video && timestamp < chunk.startMicros()) {
+                        continue;
+                    }
+                    if (video) {
+                        recorder.record(frame);
+                        long doneMillis = Math.min(chunk.lengthMillis(), timestamp / 1_000 - chunk.startMicros() / 1_000);
+                        if (doneMillis > reportedMillis) {
+                            progress.increment(doneMillis - reportedMillis);
+                            reportedMillis = doneMillis;
+                        }
+                    } else if (frame.samples != null) {
+                        if (audioStarted) {
+                            recorder.recordSamples(frame.sampleRate, frame.audioChannels, frame.samples);
+                        } else {
+                            audioStarted = recordFromStart(recorder, frame, chunk.startMicros() - timestamp);
+                        }
+                    }
+                }
+                recorder.stop();
+                if (chunk.lengthMillis() > reportedMillis) {
+                    progress.increment(chunk.lengthMillis() - reportedMillis);
+                }
+            }
+            grabber.stop();
+        } catch (FFmpegFrameGrabber.Exception | FFmpegFrameRecorder.Exception e) {
+            throw new IOException("Failed to encode chunk " + output.getFileName(), e);
+        }
+    }
+
+    // Audio frames rarely begin on the chunk boundary, so the first one is trimmed or preceded by silence to make the
+    // chunk's audio start exactly at its planned start, which is where concatenate places it.
+    private static boolean recordFromStart(FFmpegFrameRecorder recorder, Frame frame, long leadMicros)
+            throws FFmpegFrameRecorder.Exception {
+        if (!(frame.samples[0] instanceof ShortBuffer source)) {
+            if (leadMicros > 0) {
+                return false;
+            }
+            recorder.recordSamples(frame.sampleRate, frame.audioChannels, frame.samples);
+            return true;
+        }
+        int channels = Math.max(1, frame.audioChannels);
+        long offset = leadMicros * frame.sampleRate / 1_000_000L;
+        if (offset >= source.remaining() / channels) {
+            return false;
+        }
+        if (offset < 0) {
+            recorder.recordSamples(frame.sampleRate, channels, ShortBuffer.wrap(new short[(int) -offset * channels]));
+        }
+        ShortBuffer samples = source.duplicate();
+        if (offset > 0) {
+            samples.position(samples.position() + (int) offset * channels);
+        }
+        recorder.recordSamples(frame.sampleRate, channels, samples);
+        return true;
+    }
+
+    // Every stream of a chunk is shifted by where the plan places the chunk rather than packed onto the previous
+    // chunk's end, so encoder priming and padding cannot accumulate into A/V drift; audio spilling past a join is dropped.
+    private static void concatenate(List<Chunk> chunks, List<Path> chunkFiles, String format, Path output,
+                                    RenderTaskContext context) throws IOException {
+        List<FFmpegFrameGrabber> opened = new ArrayList<>();
+        try {
+            FFmpegFrameGrabber first = open(chunkFiles.get(0), opened);
+            AVFormatContext firstContext = first.getFormatContext();
+            int streams = firstContext.nb_streams();
+            long startMicros = 0;
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), first.getImageWidth(),
+                    first.getImageHeight(), first.getAudioChannels())) {
+                recorder.setFormat(format);
+                recorder.start(firstContext);
+                for (int i = 0; i < chunkFiles.size(); i++) {
+                    context.checkCancelled();
+                    FFmpegFrameGrabber grabber = i == 0 ? first : open(chunkFiles.get(i), opened);
+                    AVFormatContext chunkContext = grabber.getFormatContext();
+                    if (i > 0) {
+                        requireSameStreams(firstContext, chunkContext, chunkFiles.get(i));
+                    }
+                    // Chunks may come from different inputs, so the planned start is the sum of the lengths before it.
+                    Chunk chunk = chunks.get(i);
+                    long chunkMicros = chunk.endMicros() - chunk.startMicros();
+                    boolean last = i + 1 == chunks.size();
+                    AVPacket packet;
+                    while ((packet = grabber.grabPacket()) != null) {
+                        int stream = packet.stream_index();
+                        if (stream >= streams) {
+                            continue;
+                        }
+                        // The recorder rescales from the first chunk's time bases, so packets are expressed in those.
+                        AVRational timeBase = firstContext.streams(stream).time_base();
+                        AVRational chunkTimeBase = chunkContext.streams(stream).time_base();
+                        long offset = rescale(startMicros, timeBase);
+                        long pts = shift(packet.pts(), chunkTimeBase, timeBase, offset);
+                        long dts = shift(packet.dts(), chunkTimeBase, timeBase, offset);
+                        long duration = avutil.av_rescale_q(packet.duration(), chunkTimeBase, timeBase);
+                        if (firstContext.streams(stream).codecpar().codec_type() == avutil.AVMEDIA_TYPE_AUDIO
+                                && pts != avutil.AV_NOPTS_VALUE) {
+                            long end = rescale(startMicros + chunkMicros, timeBase);
+                            if ((i > 0 && pts < offset) || (!last && pts >= end)) {
+                                continue;
+                            }
+                            if (!last) {
+                                duration = Math.min(duration, end - pts);
+                            }
+                        }
+                        packet.pts(pts);
+                        packet.dts(dts);
+                        packet.duration(duration);
+                        recorder.recordPacket(packet);
+                    }
+                    if (i > 0) {
+                        grabber.stop();
+                    }
+                    startMicros += chunkMicros;
+                }
+                recorder.stop();
+            }
+        } catch (FFmpegFrameGrabber.Exception | FFmpegFrameRecorder.Exception e) {
+            throw new IOException("Failed to concatenate chunks into " + output, e);
+        } finally {
+            for (FFmpegFrameGrabber grabber : opened) {
+                try {
+                    grabber.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    // The output is muxed with the first chunk's codec parameters, so a chunk encoded differently would be unplayable.
+    private static void requireSameStreams(AVFormatContext expected, AVFormatContext actual, Path chunk) throws IOException {
+        if (actual.nb_streams() != expected.nb_streams()) {
+            throw new IOException("Chunk " + chunk.getFileName() + " has " + actual.nb_streams() + " streams, expected "
+                    + expected.nb_streams());
+        }
+        for (int stream = 0; stream < expected.nb_streams(); stream++) {
+            AVCodecParameters want = expected.streams(stream).codecpar();
+            AVCodecParameters got = actual.streams(stream).codecpar();
+            if (want.codec_type() != got.codec_type() || want.codec_id() != got.codec_id()
+                    || !Arrays.equals(extradata(want), extradata(got))) {
+                throw new IOException("Chunk " + chunk.getFileName() + " stream " + stream
+                        + " was encoded with different codec parameters than the first chunk");
+            }
+        }
+    }
+
+    private static byte[] extradata(AVCodecParameters parameters) {
+        byte[] data = new byte[Math.max(0, parameters.extradata_size())];
+        if (data.length > 0 && parameters.extradata() != null) {
+            parameters.extradata().get(data);
+        }
+        return data;
+    }
+
+    private static long shift(long timestamp, AVRational from, AVRational to, long offset) {
+        if (timestamp == avutil.AV_NOPTS_VALUE) {
+            return timestamp;
+        }
+        return avutil.av_rescale_q(timestamp, from, to) + offset;
+    }
+
+    private static long rescale(long micros, AVRational timeBase) {
+        return micros * timeBase.den() / (1_000_000L * timeBase.num());
+    }
+
+    private static FFmpegFrameGrabber open(Path chunk, List<FFmpegFrameGrabber> opened) throws FFmpegFrameGrabber.Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(chunk.toFile());
+        opened.add(grabber);
+        grabber.start();
+        return grabber;
+    }
+
+    private static String extensionOf(Path output) {
+        String name = output.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1) : "mp4";
+    }
+
+    @FunctionalInterface
+    public interface RecorderFactory {
+        FFmpegFrameRecorder create(Path output, FFmpegFrameGrabber source);
+    }
+
+    public record Chunk(Path input, long startMicros, long endMicros) {
+        public Chunk {
+            Objects.requireNonNull(input, "input");
+            if (endMicros <= startMicros) {
+                throw new IllegalArgumentException("endMicros must be after startMicros");
+            }
+        }
+
+        long lengthMillis() {
+            return endMicros / 1_000 - startMicros / 1_000;
+        }
+    }
+}
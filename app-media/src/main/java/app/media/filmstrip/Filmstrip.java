@@ -0,0 +1,60 @@
+package app.media.filmstrip;
+
+import java.nio.ByteBuffer;
+
+// One pyramid level of a source's thumbnails: count RGB thumbnails taken every intervalSeconds from the start.
+public final class Filmstrip {
+    private final int level;
+    private final double intervalSeconds;
+    private final int thumbWidth;
+    private final int thumbHeight;
+    private final int count;
+    private final ByteBuffer pixels;
+
+    Filmstrip(int level, double intervalSeconds, int thumbWidth, int thumbHeight, int count, ByteBuffer pixels) {
+        this.level = level;
+        this.intervalSeconds = intervalSeconds;
+        this.thumbWidth = thumbWidth;
+        this.thumbHeight = thumbHeight;
+        this.count = count;
+        this.pixels = pixels;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public double intervalSeconds() {
+        return intervalSeconds;
+    }
+
+    public int thumbWidth() {
+        return thumbWidth;
+    }
+
+    public int thumbHeight() {
+        return thumbHeight;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int indexAt(double sourceSeconds) {
+        int index = (int) Math.floor(Math.max(0, sourceSeconds) / intervalSeconds);
+        return Math.min(count - 1, index);
+    }
+
+    // Packed RGB rows of one thumbnail, thumbWidth * 3 bytes per row.
+    public ByteBuffer thumbnail(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int size = thumbBytes(thumbWidth, thumbHeight);
+        return pixels.slice(index * size, size).asReadOnlyBuffer();
+    }
+
+    static int thumbBytes(int thumbWidth, int thumbHeight) {
+        return thumbWidth * thumbHeight * 3;
+    }
+}
@@ -0,0 +1,274 @@
+package app.media.filmstrip;
+
+import app.media.frame.FrameExtractor;
+import app.media.probe.MediaMetadata;
+import app.media.probe.MediaProbe;
+import app.util.FailureBackoff;
+import app.util.SourceIdentity;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Builds timeline thumbnails in the background and keeps them as one memory-mapped atlas file per source and level.
+// Level k holds a thumbnail every BASE_INTERVAL_SECONDS * 2^k, so a finer level only decodes the frames its coarser
+// neighbour does not already have. Only the most recently used levels stay mapped; an evicted level is reloaded from
+// its atlas file the next time it is asked for.
+public class FilmstripService implements Closeable {
+    public static final int DEFAULT_THUMB_HEIGHT = 44;
+    static final double BASE_INTERVAL_SECONDS = 0.25;
+    static final int LEVELS = 9;
+    static final int DEFAULT_MAX_READY_LEVELS = 256;
+    private static final Logger LOGGER = LoggerFactory.getLogger(FilmstripService.class);
+    private static final int MAGIC = 0x4d465331;
+    private static final int HEADER_BYTES = Integer.BYTES * 5;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(10);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(10);
+
+    private final FrameExtractor extractor;
+    private final MediaProbe probe = new MediaProbe();
+    private final Path atlasDir;
+    private final int thumbHeight;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "montage-filmstrip");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Filmstrip> ready;
+    private final List<Consumer<Filmstrip>> evictionListeners = new CopyOnWriteArrayList<>();
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final FailureBackoff failures;
+    private final ConcurrentHashMap<String, Integer> thumbWidths = new ConcurrentHashMap<>();
+
+    public FilmstripService(FrameExtractor extractor, Path atlasDir) {
+        this(extractor, atlasDir, DEFAULT_THUMB_HEIGHT);
+    }
+
+    public FilmstripService(FrameExtractor extractor, Path atlasDir, int thumbHeight) {
+        this(extractor, atlasDir, thumbHeight, DEFAULT_MAX_READY_LEVELS);
+    }
+
+    public FilmstripService(FrameExtractor extractor, Path atlasDir, int thumbHeight, int maxReadyLevels) {
+        this(extractor, atlasDir, thumbHeight, maxReadyLevels, new FailureBackoff(RETRY_DELAY, MAX_RETRY_DELAY));
+    }
+
+    FilmstripService(FrameExtractor extractor, Path atlasDir, int thumbHeight, int maxReadyLevels, FailureBackoff failures) {
+        this.extractor = Objects.requireNonNull(extractor, "extractor");
+        this.atlasDir = Objects.requireNonNull(atlasDir, "atlasDir");
+        if (thumbHeight <= 0) {
+            throw new IllegalArgumentException("thumbHeight must be > 0");
+        }
+        if (maxReadyLevels <= 0) {
+            throw new IllegalArgumentException("maxReadyLevels must be > 0");
+        }
+        this.thumbHeight = thumbHeight;
+        this.failures = Objects.requireNonNull(failures, "failures");
+        this.ready = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Filmstrip> eldest) {
+                if (size() <= maxReadyLevels) {
+                    return false;
+                }
+                evictionListeners.forEach(listener -> listener.accept(eldest.getValue()));
+                return true;
+            }
+        });
+    }
+
+    // Called with each strip dropped from the ready set, so callers can release whatever they derived from it.
+    public void addEvictionListener(Consumer<Filmstrip> listener) {
+        evictionListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    // Never blocks on decoding: returns the level for this zoom if it is ready, otherwise the nearest ready level (or
+    // null) and builds the wanted one in the background, calling onReady once it can be drawn.
+    public Filmstrip strip(Path source, double pixelsPerSourceSecond, Runnable onReady) {
+        Objects.requireNonNull(source, "source");
+        String id;
+        try {
+            id = SourceIdentity.of(source);
+        } catch (IOException e) {
+            return null;
+        }
+        int thumbWidth = thumbWidths.getOrDefault(id, Math.round(thumbHeight * 16 / 9f));
+        int wanted = levelFor(thumbWidth, pixelsPerSourceSecond);
+        Filmstrip exact = ready.get(levelKey(id, wanted));
+        if (exact != null) {
+            return exact;
+        }
+        String key = levelKey(id, wanted);
+        if (failures.shouldAttempt(source, id) && scheduled.add(key)) {
+            builder.execute(() -> {
+                try {
+                    build(source, id, wanted);
+                    failures.succeeded(source);
+                    if (onReady != null) {
+                        onReady.run();
+                    }
+                } catch (Exception e) {
+                    failures.failed(source, id);
+                    LOGGER.warn("Failed to build filmstrip for {}", source, e);
+                } finally {
+                    scheduled.remove(key);
+                }
+            });
+        }
+        for (int distance = 1; distance < LEVELS; distance++) {
+            for (int level : new int[] {wanted + distance, wanted - distance}) {
+                Filmstrip nearby = level >= 0 && level < LEVELS ? ready.get(levelKey(id, level)) : null;
+                if (nearby != null) {
+                    return nearby;
+                }
+            }
+        }
+        return null;
+    }
+
+    // The finest level whose thumbnails are at least as far apart as one thumbnail is wide on screen.
+    public static int levelFor(int thumbWidth, double pixelsPerSourceSecond) {
+        double secondsPerThumb = thumbWidth / Math.max(1e-6, pixelsPerSourceSecond);
+        for (int level = 0; level < LEVELS; level++) {
+            if (intervalFor(level) >= secondsPerThumb) {
+                return level;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    static double intervalFor(int level) {
+        return BASE_INTERVAL_SECONDS * (1 << level);
+    }
+
+    @Override
+    public void close() {
+        builder.shutdownNow();
+    }
+
+    private Filmstrip build(Path source, String id, int level) throws IOException {
+        Path atlas = atlasDir.resolve(id + "-" + level + ".strip");
+        if (Files.exists(atlas)) {
+            try {
+                return publish(id, load(atlas));
+            } catch (IOException e) {
+                LOGGER.warn("Discarding unreadable filmstrip atlas {}", atlas, e);
+                Files.deleteIfExists(atlas);
+            }
+        }
+        Files.createDirectories(atlasDir);
+        MediaMetadata metadata = probe.probe(source);
+        double duration = Math.max(metadata.durationSeconds(), BASE_INTERVAL_SECONDS);
+        double interval = intervalFor(level);
+        int count = Math.max(1, (int) Math.ceil(duration / interval));
+        int thumbWidth = metadata.width() > 0 && metadata.height() > 0
+                ? Math.max(1, Math.round(thumbHeight * metadata.width() / (float) metadata.height()))
+                : Math.round(thumbHeight * 16 / 9f);
+        int thumbBytes = Filmstrip.thumbBytes(thumbWidth, thumbHeight);
+        double lastFrame = Math.max(0, duration - 1.0 / (metadata.frameRate() > 0 ? metadata.frameRate() : 25));
+
+        Filmstrip coarser = level + 1 < LEVELS ? ready.get(levelKey(id, level + 1)) : null;
+        if (coarser != null && (coarser.thumbWidth() != thumbWidth || coarser.thumbHeight() != thumbHeight)) {
+            coarser = null;
+        }
+        int[] missing = new int[count];
+        int missingCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (coarser == null || i % 2 != 0 || i / 2 >= coarser.count()) {
+                missing[missingCount++] = i;
+            }
+        }
+
+        Path temp = atlasDir.resolve(atlas.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) count * thumbBytes);
+            out.putInt(MAGIC).putInt(level).putInt(thumbWidth).putInt(thumbHeight).putInt(count);
+            if (coarser != null) {
+                for (int i = 0; i < count; i += 2) {
+                    if (i / 2 < coarser.count()) {
+                        out.put(HEADER_BYTES + i * thumbBytes, coarser.thumbnail(i / 2), 0, thumbBytes);
+                    }
+                }
+            }
+            double[] seconds = new double[missingCount];
+            for (int i = 0; i < missingCount; i++) {
+                seconds[i] = Math.min(missing[i] * interval, lastFrame);
+            }
+            int[] slots = missing;
+            extractor.extractFrames(source, seconds, (index, at, frame) ->
+                    writeThumbnail(out, HEADER_BYTES + slots[index] * thumbBytes, frame, thumbWidth, thumbHeight));
+            out.force();
+        }
+        Files.move(temp, atlas, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("Built filmstrip level {} for {} ({} thumbnails, {} decoded)", level, source, count, missingCount);
+        return publish(id, load(atlas));
+    }
+
+    private Filmstrip publish(String id, Filmstrip filmstrip) {
+        thumbWidths.put(id, filmstrip.thumbWidth());
+        ready.put(levelKey(id, filmstrip.level()), filmstrip);
+        return filmstrip;
+    }
+
+    private static Filmstrip load(Path atlas) throws IOException {
+        try (FileChannel channel = FileChannel.open(atlas, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a filmstrip atlas: " + atlas);
+            }
+            int level = mapped.getInt(4);
+            int thumbWidth = mapped.getInt(8);
+            int thumbHeight = mapped.getInt(12);
+            int count = mapped.getInt(16);
+            long expected = HEADER_BYTES + (long) count * Filmstrip.thumbBytes(thumbWidth, thumbHeight);
+            if (level < 0 || level >= LEVELS || thumbWidth <= 0 || thumbHeight <= 0 || count <= 0 || channel.size() != expected) {
+                throw new IOException("Corrupt filmstrip atlas: " + atlas);
+            }
+            ByteBuffer pixels = mapped.slice(HEADER_BYTES, (int) (expected - HEADER_BYTES));
+            return new Filmstrip(level, intervalFor(level), thumbWidth, thumbHeight, count, pixels);
+        }
+    }
+
+    private static void writeThumbnail(ByteBuffer out, int offset, BufferedImage frame, int width, int height) {
+        BufferedImage thumb = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = thumb.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(frame, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        byte[] bgr = ((DataBufferByte) thumb.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < bgr.length; i += 3) {
+            out.put(offset + i, bgr[i + 2]);
+            out.put(offset + i + 1, bgr[i + 1]);
+            out.put(offset + i + 2, bgr[i]);
+        }
+    }
+
+    private static String levelKey(String id, int level) {
+        return id + "@" + level;
+    }
+}
@@ -0,0 +1,361 @@
+package app.media.frame;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Keeps started grabbers open between frame requests. A session is used by one thread at a time; requests less than a
+// GOP ahead of where a session stopped decode forward instead of seeking, which makes sequential scrubbing cheap.
+public final class DecoderSessionPool implements Closeable {
+    public static final int DEFAULT_MAX_OPEN = 8;
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(30);
+    private static final long FORWARD_WINDOW_MICROS = 2_000_000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecoderSessionPool.class);
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "montage-decoder-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int maxOpen;
+    private final long idleTimeoutNanos;
+    private final Map<Path, Deque<Session>> idle = new HashMap<>();
+    private final ScheduledFuture<?> reaper;
+    private int open;
+    private boolean closed;
+
+    public DecoderSessionPool() {
+        this(DEFAULT_MAX_OPEN, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public DecoderSessionPool(int maxOpen, Duration idleTimeout) {
+        Objects.requireNonNull(idleTimeout, "idleTimeout");
+        if (maxOpen <= 0) {
+            throw new IllegalArgumentException("maxOpen must be > 0");
+        }
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+        this.maxOpen = maxOpen;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        long period = Math.max(10, idleTimeout.toMillis() / 2);
+        this.reaper = REAPER.scheduleAtFixedRate(this::closeExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public BufferedImage extract(Path mediaPath, double seconds) throws IOException {
+        try (Lease lease = lease(mediaPath)) {
+            return lease.grab(seconds);
+        }
+    }
+
+    // Holds one session for a run of requests against the same file; the session is only opened on the first grab.
+    public Lease lease(Path mediaPath) {
+        return new Lease(mediaPath.toAbsolutePath().normalize());
+    }
+
+    public synchronized int openSessions() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        List<Session> sessions = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            idle.values().forEach(sessions::addAll);
+            idle.clear();
+            open -= sessions.size();
+            notifyAll();
+        }
+        reaper.cancel(false);
+        sessions.forEach(Session::close);
+    }
+
+    private Session acquire(Path path, long targetMicros) throws IOException {
+        long stamp = stamp(path);
+        Session evicted = null;
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IOException("Decoder session pool is closed");
+                }
+                Session reusable = takeIdle(path, targetMicros, stamp);
+                if (reusable != null) {
+                    return reusable;
+                }
+                if (open < maxOpen) {
+                    open++;
+                    break;
+                }
+                evicted = takeLeastRecentlyUsed();
+                if (evicted != null) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a decoder session");
+                }
+            }
+        }
+        if (evicted != null) {
+            evicted.close();
+        }
+        try {
+            return Session.open(path, stamp);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                open--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    // Prefers the session that can reach the target by decoding forward the shortest distance.
+    private Session takeIdle(Path path, long targetMicros, long stamp) {
+        Deque<Session> sessions = idle.get(path);
+        if (sessions == null) {
+            return null;
+        }
+        Session best = null;
+        for (Iterator<Session> it = sessions.iterator(); it.hasNext(); ) {
+            Session session = it.next();
+            if (session.stamp != stamp) {
+                it.remove();
+                open--;
+                REAPER.execute(session::close);
+                continue;
+            }
+            if (best == null || (session.canReach(targetMicros)
+                    && (!best.canReach(targetMicros) || session.positionMicros > best.positionMicros))) {
+                best = session;
+            }
+        }
+        if (best != null) {
+            sessions.remove(best);
+        }
+        if (sessions.isEmpty()) {
+            idle.remove(path);
+        }
+        return best;
+    }
+
+    private Session takeLeastRecentlyUsed() {
+        Session oldest = null;
+        for (Deque<Session> sessions : idle.values()) {
+            Session candidate = sessions.peekLast();
+            if (candidate != null && (oldest == null || candidate.lastUsedNanos < oldest.lastUsedNanos)) {
+                oldest = candidate;
+            }
+        }
+        if (oldest != null) {
+            Deque<Session> sessions = idle.get(oldest.path);
+            sessions.removeLastOccurrence(oldest);
+            if (sessions.isEmpty()) {
+                idle.remove(oldest.path);
+            }
+        }
+        return oldest;
+    }
+
+    private void release(Session session) {
+        synchronized (this) {
+            if (!closed) {
+                session.lastUsedNanos = System.nanoTime();
+                idle.computeIfAbsent(session.path, ignored -> new ArrayDeque<>()).addFirst(session);
+                notifyAll();
+                return;
+            }
+            open--;
+        }
+        session.close();
+    }
+
+    private void discard(Session session) {
+        session.close();
+        synchronized (this) {
+            open--;
+            notifyAll();
+        }
+    }
+
+    private void closeExpired() {
+        List<Session> expired = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (this) {
+            for (Iterator<Deque<Session>> it = idle.values().iterator(); it.hasNext(); ) {
+                Deque<Session> sessions = it.next();
+                sessions.removeIf(session -> {
+                    if (now - session.lastUsedNanos >= idleTimeoutNanos) {
+                        expired.add(session);
+                        return true;
+                    }
+                    return false;
+                });
+                if (sessions.isEmpty()) {
+                    it.remove();
+                }
+            }
+            open -= expired.size();
+            if (!expired.isEmpty()) {
+                notifyAll();
+            }
+        }
+        expired.forEach(Session::close);
+    }
+
+    private static long stamp(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            throw new IOException("Media file does not exist: " + path);
+        }
+        return Files.getLastModifiedTime(path).toMillis() * 31 + Files.size(path);
+    }
+
+    public final class Lease implements Closeable {
+        private final Path path;
+        private Session session;
+        private boolean healthy = true;
+        private long lastTargetMicros = -1;
+        private BufferedImage lastImage;
+
+        private Lease(Path path) {
+            this.path = path;
+        }
+
+        public BufferedImage grab(double seconds) throws IOException {
+            long targetMicros = Math.max(0, (long) (seconds * 1_000_000));
+            if (targetMicros == lastTargetMicros && lastImage != null) {
+                return lastImage;
+            }
+            if (session == null) {
+                session = acquire(path, targetMicros);
+            }
+            healthy = false;
+            lastImage = session.grab(targetMicros);
+            lastTargetMicros = targetMicros;
+            healthy = true;
+            return lastImage;
+        }
+
+        @Override
+        public void close() {
+            if (session == null) {
+                return;
+            }
+            if (healthy) {
+                release(session);
+            } else {
+                discard(session);
+            }
+            session = null;
+        }
+    }
+
+    private static final class Session {
+        private final Path path;
+        private final long stamp;
+        private final FFmpegFrameGrabber grabber;
+        private final long frameMicros;
+        private long positionMicros = -1;
+        private long lastKeyframeMicros = -1;
+        private long gopMicros = FORWARD_WINDOW_MICROS;
+        private long lastUsedNanos = System.nanoTime();
+
+        private Session(Path path, long stamp, FFmpegFrameGrabber grabber) {
+            this.path = path;
+            this.stamp = stamp;
+            this.grabber = grabber;
+            double frameRate = grabber.getFrameRate();
+            this.frameMicros = frameRate > 0 ? Math.round(1_000_000 / frameRate) : 40_000;
+        }
+
+        static Session open(Path path, long stamp) throws IOException {
+            FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(path.toFile());
+            try {
+                grabber.start();
+            } catch (FFmpegFrameGrabber.Exception e) {
+                try {
+                    grabber.release();
+                } catch (FFmpegFrameGrabber.Exception ignored) {
+                }
+                throw new IOException("Failed to open " + path, e);
+            }
+            return new Session(path, stamp, grabber);
+        }
+
+        boolean canReach(long targetMicros) {
+            return positionMicros >= 0 && targetMicros > positionMicros && targetMicros - positionMicros <= gopMicros;
+        }
+
+        BufferedImage grab(long targetMicros) throws IOException {
+            try (Java2DFrameConverter converter = new Java2DFrameConverter()) {
+                Frame frame;
+                if (canReach(targetMicros)) {
+                    do {
+                        frame = grabber.grabImage();
+                        observe(frame);
+                    } while (frame != null && frame.timestamp + frameMicros / 2 < targetMicros);
+                } else {
+                    grabber.setTimestamp(targetMicros);
+                    lastKeyframeMicros = -1;
+                    frame = grabber.grabImage();
+                    if (frame == null) {
+                        frame = grabber.grab();
+                    }
+                    observe(frame);
+                }
+                if (frame == null) {
+                    positionMicros = -1;
+                    throw new IOException("No frame available at " + targetMicros / 1_000_000.0 + "s for " + path);
+                }
+                positionMicros = frame.timestamp;
+                return converter.getBufferedImage(frame);
+            } catch (FFmpegFrameGrabber.Exception e) {
+                throw new IOException("Failed to extract frame from " + path, e);
+            }
+        }
+
+        // Learns the stream's keyframe spacing, so targets within one GOP are decoded forward rather than seeked to.
+        private void observe(Frame frame) {
+            if (frame == null || !frame.keyFrame) {
+                return;
+            }
+            if (lastKeyframeMicros >= 0 && frame.timestamp > lastKeyframeMicros) {
+                gopMicros = Math.max(gopMicros, frame.timestamp - lastKeyframeMicros);
+            }
+            lastKeyframeMicros = frame.timestamp;
+        }
+
+        void close() {
+            try {
+                grabber.close();
+            } catch (FrameGrabber.Exception e) {
+                LOGGER.warn("Failed to close decoder for {}", path, e);
+            }
+        }
+    }
+}
@@ -3,19 +3,26 @@ package app.media.frame;
 import app.media.cache.FrameCache;
 import app.media.cache.FrameLoader;
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Objects;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameConverter;
+import java.util.stream.IntStream;
 
-public class FrameExtractor {
+public class FrameExtractor implements Closeable {
     private final FrameCache frameCache;
+    private final DecoderSessionPool decoders;
 
     public FrameExtractor(FrameCache frameCache) {
+        this(frameCache, new DecoderSessionPool());
+    }
+
+    public FrameExtractor(FrameCache frameCache, DecoderSessionPool decoders) {
         this.frameCache = frameCache;
+        this.decoders = Objects.requireNonNull(decoders, "decoders");
     }
 
     public BufferedImage extract(Path mediaPath, double seconds) throws IOException {
@@ -26,46 +33,71 @@ public class FrameExtractor {
         if (!Files.exists(mediaPath)) {
             throw new IOException("Media file does not exist: " + mediaPath);
         }
-        String key = mediaPath.toAbsolutePath() + "#" + String.format("%.3f", seconds);
         if (frameCache == null) {
-            return loadFrame(mediaPath, seconds);
+            return decoders.extract(mediaPath, seconds);
         }
-        return frameCache.get(key, new CacheLoader(mediaPath, seconds));
+        return frameCache.get(cacheKey(mediaPath, seconds), new CacheLoader(decoders, mediaPath, seconds));
     }
 
-    private static BufferedImage loadFrame(Path mediaPath, double seconds) throws IOException {
-        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(mediaPath.toFile());
-             Java2DFrameConverter converter = new Java2DFrameConverter()) {
-            grabber.start();
-            long timestampMicros = (long) (seconds * 1_000_000);
-            grabber.setTimestamp(Math.max(0, timestampMicros));
-            Frame frame = grabber.grabImage();
-            if (frame == null) {
-                frame = grabber.grab();
-            }
-            if (frame == null) {
-                throw new IOException("No frame available at " + seconds + "s for " + mediaPath);
+    // Serves every timestamp from one decoder session: requests are visited in time order so that runs closer together
+    // than a GOP decode forward once instead of seeking per frame. Cached frames skip decoding entirely.
+    public void extractFrames(Path mediaPath, double[] seconds, FrameSink sink) throws IOException {
+        Objects.requireNonNull(mediaPath, "mediaPath");
+        Objects.requireNonNull(seconds, "seconds");
+        Objects.requireNonNull(sink, "sink");
+        if (Arrays.stream(seconds).anyMatch(value -> value < 0 || Double.isNaN(value))) {
+            throw new IllegalArgumentException("seconds must be >= 0");
+        }
+        if (!Files.exists(mediaPath)) {
+            throw new IOException("Media file does not exist: " + mediaPath);
+        }
+        int[] order = IntStream.range(0, seconds.length).boxed()
+                .sorted(Comparator.comparingDouble(index -> seconds[index]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        try (DecoderSessionPool.Lease lease = decoders.lease(mediaPath)) {
+            BufferedImage reusable = null;
+            for (int index : order) {
+                double at = seconds[index];
+                BufferedImage frame;
+                if (frameCache == null) {
+                    frame = lease.grab(at);
+                } else {
+                    BufferedImage[] decoded = new BufferedImage[1];
+                    frame = frameCache.get(cacheKey(mediaPath, at), reusable, () -> decoded[0] = lease.grab(at));
+                    // Decoded frames belong to the lease, which hands them out again; only cache copies are reused.
+                    if (frame != decoded[0]) {
+                        reusable = frame;
+                    }
+                }
+                sink.accept(index, at, frame);
             }
-            BufferedImage image = converter.getBufferedImage(frame);
-            grabber.stop();
-            return image;
-        } catch (FFmpegFrameGrabber.Exception e) {
-            throw new IOException("Failed to extract frame from " + mediaPath, e);
         }
     }
 
+    private static String cacheKey(Path mediaPath, double seconds) {
+        return mediaPath.toAbsolutePath() + "#" + String.format("%.3f", seconds);
+    }
+
+    @Override
+    public void close() {
+        decoders.close();
+    }
+
     private static final class CacheLoader implements FrameLoader {
+        private final DecoderSessionPool decoders;
         private final Path mediaPath;
         private final double seconds;
 
-        private CacheLoader(Path mediaPath, double seconds) {
+        private CacheLoader(DecoderSessionPool decoders, Path mediaPath, double seconds) {
+            this.decoders = decoders;
             this.mediaPath = mediaPath;
             this.seconds = seconds;
         }
 
         @Override
         public BufferedImage load() throws IOException {
-            return loadFrame(mediaPath, seconds);
+            return decoders.extract(mediaPath, seconds);
         }
     }
 }
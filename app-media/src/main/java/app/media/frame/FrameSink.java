@@ -0,0 +1,11 @@
+package app.media.frame;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+@FunctionalInterface
+public interface FrameSink {
+    // index is the position of the request in the caller's array; frames arrive in timestamp order. The image may be
+    // refilled for the next frame, so sinks copy out whatever they keep.
+    void accept(int index, double seconds, BufferedImage frame) throws IOException;
+}
@@ -1,63 +1,291 @@
 package app.media.proxy;
 
+import app.render.ProgressReporter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ProxyManager {
-    private final Path proxyDir;
-    private final ConcurrentMap<Path, Path> cache = new ConcurrentHashMap<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyManager.class);
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+    private static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024 * 1024;
+
+    private final ProxyStore store;
+    private final ProxyProfile defaultProfile;
+    private final ConcurrentMap<JobKey, ProxyJob> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadPoolExecutor workers;
 
     public ProxyManager(Path proxyDir) throws IOException {
-        this.proxyDir = Objects.requireNonNull(proxyDir, "proxyDir");
+        this(proxyDir, Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+    }
+
+    public ProxyManager(Path proxyDir, int workerCount) throws IOException {
+        this(proxyDir, workerCount, DEFAULT_MAX_BYTES);
+    }
+
+    public ProxyManager(Path proxyDir, int workerCount, long maxBytes) throws IOException {
+        this(proxyDir, workerCount, maxBytes, ProxyProfile.STANDARD);
+    }
+
+    public ProxyManager(Path proxyDir, int workerCount, long maxBytes, ProxyProfile defaultProfile) throws IOException {
+        Objects.requireNonNull(proxyDir, "proxyDir");
+        this.defaultProfile = Objects.requireNonNull(defaultProfile, "defaultProfile");
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be > 0");
+        }
         Files.createDirectories(proxyDir);
+        this.store = new ProxyStore(proxyDir, maxBytes);
+        // Queued jobs are ordered by priority, so clips near the playhead overtake the backlog.
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "montage-proxy-" + THREAD_IDS.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
     public Path ensureProxy(Path mediaPath) throws IOException {
-        return cache.computeIfAbsent(mediaPath.toAbsolutePath(), this::generateProxyUnchecked);
+        return ensureProxy(mediaPath, defaultProfile);
     }
 
-    private Path generateProxyUnchecked(Path mediaPath) {
+    public Path ensureProxy(Path mediaPath, ProxyProfile profile) throws IOException {
         try {
-            Path proxy = proxyDir.resolve(mediaPath.getFileName().toString() + ".proxy.mp4");
-            if (Files.exists(proxy)) {
-                return proxy;
+            return requestProxy(mediaPath, profile, 0, null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building proxy for " + mediaPath);
+        } catch (CancellationException e) {
+            throw new IOException("Proxy generation cancelled for " + mediaPath, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Failed to build proxy for " + mediaPath, e.getCause());
+        }
+    }
+
+    // Queues proxy generation and returns immediately. A request for a source that is already queued joins the
+    // existing job and raises its priority if the new one is higher.
+    public CompletableFuture<Path> requestProxy(Path mediaPath, int priority, DoubleConsumer progress) {
+        return requestProxy(mediaPath, defaultProfile, priority, progress);
+    }
+
+    public CompletableFuture<Path> requestProxy(Path mediaPath, ProxyProfile profile, int priority, DoubleConsumer progress) {
+        Path source = Objects.requireNonNull(mediaPath, "mediaPath").toAbsolutePath();
+        Objects.requireNonNull(profile, "profile");
+        try {
+            Path ready = store.lookup(source, profile);
+            if (ready != null) {
+                return CompletableFuture.completedFuture(ready);
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        ProxyJob job = inFlight.compute(new JobKey(source, profile), (key, existing) -> {
+            if (existing != null && !existing.future.isDone()) {
+                existing.addListener(progress);
+                return existing;
             }
-            try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(mediaPath.toFile())) {
-                grabber.start();
-                int width = Math.max(320, grabber.getImageWidth() / 2);
-                int height = Math.max(180, grabber.getImageHeight() / 2);
-                double frameRate = grabber.getFrameRate() > 0 ? grabber.getFrameRate() : 30.0;
-                try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(proxy.toFile(), width, height, grabber.getAudioChannels())) {
-                    recorder.setFormat("mp4");
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                    recorder.setVideoBitrate(1_500_000);
-                    recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
-                    recorder.setFrameRate(frameRate);
-                    recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-                    recorder.setAudioBitrate(96_000);
-                    recorder.setSampleRate(grabber.getSampleRate());
-                    recorder.setAudioChannels(grabber.getAudioChannels());
-                    recorder.start();
-                    Frame frame;
-                    while ((frame = grabber.grab()) != null) {
-                        recorder.record(frame);
+            return new ProxyJob(key, priority, sequence.getAndIncrement(), progress);
+        });
+        if (job.submitted.compareAndSet(false, true)) {
+            workers.execute(job);
+        } else {
+            prioritize(source, profile, priority);
+        }
+        return job.future;
+    }
+
+    public void prioritize(Path mediaPath, int priority) {
+        prioritize(mediaPath, defaultProfile, priority);
+    }
+
+    public void prioritize(Path mediaPath, ProxyProfile profile, int priority) {
+        ProxyJob job = inFlight.get(new JobKey(mediaPath.toAbsolutePath(), profile));
+        if (job == null || priority <= job.priority) {
+            return;
+        }
+        if (workers.getQueue().remove(job)) {
+            job.priority = priority;
+            workers.execute(job);
+        }
+    }
+
+    // The proxy if one is ready, otherwise the original so editing can carry on while proxies build.
+    public Path resolve(Path mediaPath) {
+        return resolve(mediaPath, defaultProfile);
+    }
+
+    public Path resolve(Path mediaPath, ProxyProfile profile) {
+        try {
+            Path proxy = store.lookup(mediaPath.toAbsolutePath(), profile);
+            return proxy != null ? proxy : mediaPath;
+        } catch (IOException e) {
+            return mediaPath;
+        }
+    }
+
+    public long proxyBytes() {
+        return store.sizeBytes();
+    }
+
+    public boolean cancel(Path mediaPath) {
+        return cancel(mediaPath, defaultProfile);
+    }
+
+    public boolean cancel(Path mediaPath, ProxyProfile profile) {
+        ProxyJob job = inFlight.remove(new JobKey(mediaPath.toAbsolutePath(), profile));
+        if (job == null) {
+            return false;
+        }
+        workers.getQueue().remove(job);
+        return job.future.cancel(false);
+    }
+
+    public void shutdown() {
+        inFlight.values().forEach(job -> job.future.cancel(false));
+        workers.shutdownNow();
+        try {
+            store.flush();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save proxy manifest", e);
+        }
+    }
+
+    private Path generateProxy(ProxyJob job) throws IOException {
+        Path mediaPath = job.key.source();
+        ProxyProfile profile = job.key.profile();
+        Path proxy = store.target(mediaPath, profile);
+        if (Files.exists(proxy)) {
+            store.commit(mediaPath, profile, proxy);
+            return proxy;
+        }
+        Path partial = store.partial(mediaPath, profile, job.order);
+        ProgressReporter reporter = new ProgressReporter(snapshot -> job.progress(snapshot.progress()));
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(mediaPath.toFile())) {
+            grabber.start();
+            int width = profile.width(grabber.getImageWidth());
+            int height = profile.height(grabber.getImageHeight());
+            double frameRate = grabber.getFrameRate() > 0 ? grabber.getFrameRate() : 30.0;
+            reporter.setTotal(Math.max(1, grabber.getLengthInTime()));
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(partial.toFile(), width, height, grabber.getAudioChannels())) {
+                recorder.setFormat("mp4");
+                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+                recorder.setVideoBitrate(profile.videoBitrate());
+                if (profile.gopSize() > 0) {
+                    recorder.setGopSize(profile.gopSize());
+                }
+                recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                recorder.setFrameRate(frameRate);
+                recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+                recorder.setAudioBitrate(96_000);
+                recorder.setSampleRate(grabber.getSampleRate());
+                recorder.setAudioChannels(grabber.getAudioChannels());
+                recorder.start();
+                Frame frame;
+                while ((frame = grabber.grab()) != null) {
+                    if (job.future.isCancelled()) {
+                        throw new CancellationException("Proxy generation cancelled for " + mediaPath);
                     }
-                    recorder.stop();
+                    recorder.record(frame);
+                    reporter.update(Math.max(0, grabber.getTimestamp()));
                 }
-                grabber.stop();
+                recorder.stop();
             }
-            return proxy;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to build proxy for " + mediaPath, e);
+            grabber.stop();
+        } catch (FFmpegFrameGrabber.Exception | FFmpegFrameRecorder.Exception e) {
+            Files.deleteIfExists(partial);
+            throw new IOException("Failed to build proxy for " + mediaPath, e);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        // The last frames may have been recorded after a cancel; a cancelled proxy must not become visible.
+        if (job.future.isCancelled()) {
+            Files.deleteIfExists(partial);
+            throw new CancellationException("Proxy generation cancelled for " + mediaPath);
         }
+        Files.move(partial, proxy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        store.commit(mediaPath, profile, proxy);
+        reporter.flush();
+        job.progress(1.0);
+        return proxy;
     }
+
+    private final class ProxyJob implements Runnable, Comparable<ProxyJob> {
+        private final JobKey key;
+        private final long order;
+        private final CompletableFuture<Path> future = new CompletableFuture<>();
+        private final AtomicBoolean submitted = new AtomicBoolean();
+        private final List<DoubleConsumer> listeners = new CopyOnWriteArrayList<>();
+        private volatile int priority;
+
+        private ProxyJob(JobKey key, int priority, long order, DoubleConsumer listener) {
+            this.key = key;
+            this.priority = priority;
+            this.order = order;
+            addListener(listener);
+        }
+
+        void addListener(DoubleConsumer listener) {
+            if (listener != null) {
+                listeners.add(listener);
+            }
+        }
+
+        void progress(double value) {
+            listeners.forEach(listener -> listener.accept(value));
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(generateProxy(this));
+            } catch (CancellationException e) {
+                LOGGER.info("Proxy generation for {} cancelled", key.source());
+                future.cancel(false);
+            } catch (Exception e) {
+                LOGGER.warn("Proxy generation for {} failed", key.source(), e);
+                future.completeExceptionally(e);
+            } finally {
+                inFlight.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(ProxyJob other) {
+            int byPriority = Integer.compare(other.priority, priority);
+            return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+        }
+    }
+
+    private record JobKey(Path source, ProxyProfile profile) { }
 }
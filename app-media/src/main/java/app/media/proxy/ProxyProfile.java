@@ -0,0 +1,40 @@
+package app.media.proxy;
+
+// How a proxy is encoded. Shorter GOPs make seeks cheaper because a random access decodes from the previous keyframe;
+// ALL_INTRA makes every frame a keyframe at the cost of a higher bitrate.
+public enum ProxyProfile {
+    STANDARD(2, 0, 1_500_000),
+    SHORT_GOP(2, 6, 2_500_000),
+    ALL_INTRA(2, 1, 6_000_000),
+    QUARTER(4, 6, 600_000);
+
+    private final int scale;
+    private final int gopSize;
+    private final int videoBitrate;
+
+    ProxyProfile(int scale, int gopSize, int videoBitrate) {
+        this.scale = scale;
+        this.gopSize = gopSize;
+        this.videoBitrate = videoBitrate;
+    }
+
+    public int gopSize() {
+        return gopSize;
+    }
+
+    public int videoBitrate() {
+        return videoBitrate;
+    }
+
+    public int width(int sourceWidth) {
+        return even(Math.max(640 / scale, sourceWidth / scale));
+    }
+
+    public int height(int sourceHeight) {
+        return even(Math.max(360 / scale, sourceHeight / scale));
+    }
+
+    private static int even(int value) {
+        return value & ~1;
+    }
+}
@@ -0,0 +1,209 @@
+package app.media.proxy;
+
+import app.util.SourceIdentity;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Proxies keyed by source identity (absolute path, size and mtime) and profile, tracked in a JSON manifest with a total
+// size cap.
+// A source that changes gets a new key, and its old proxy is dropped the next time it is looked up or replaced.
+final class ProxyStore {
+    static final String MANIFEST = "proxies.json";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyStore.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String PROXY_SUFFIX = ".proxy.mp4";
+    private static final String PARTIAL_SUFFIX = ".partial.mp4";
+
+    private final Path proxyDir;
+    private final long maxBytes;
+    private final Map<String, ProxyEntry> entries = new LinkedHashMap<>();
+
+    ProxyStore(Path proxyDir, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be > 0");
+        }
+        this.proxyDir = proxyDir;
+        this.maxBytes = maxBytes;
+        load();
+        cleanOrphans();
+    }
+
+    synchronized Path lookup(Path source, ProxyProfile profile) throws IOException {
+        String sourceKey = SourceIdentity.of(source);
+        String key = entryKey(sourceKey, profile);
+        ProxyEntry entry = entries.get(key);
+        if (entry == null) {
+            dropStale(source, sourceKey);
+            return null;
+        }
+        Path proxy = proxyDir.resolve(entry.proxy());
+        if (!Files.exists(proxy)) {
+            entries.remove(key);
+            persist();
+            return null;
+        }
+        entries.put(key, entry.touched());
+        return proxy;
+    }
+
+    Path target(Path source, ProxyProfile profile) throws IOException {
+        return proxyDir.resolve(baseName(source, profile) + PROXY_SUFFIX);
+    }
+
+    Path partial(Path source, ProxyProfile profile, long attempt) throws IOException {
+        return proxyDir.resolve(baseName(source, profile) + "." + attempt + PARTIAL_SUFFIX);
+    }
+
+    synchronized void commit(Path source, ProxyProfile profile, Path proxy) throws IOException {
+        String sourceKey = SourceIdentity.of(source);
+        String key = entryKey(sourceKey, profile);
+        dropStale(source, sourceKey);
+        Path absolute = source.toAbsolutePath().normalize();
+        entries.put(key, new ProxyEntry(absolute.toString(), Files.size(absolute), Files.getLastModifiedTime(absolute).toMillis(),
+                proxy.getFileName().toString(), Files.size(proxy), System.currentTimeMillis()));
+        evict(key);
+        persist();
+    }
+
+    synchronized long sizeBytes() {
+        return entries.values().stream().mapToLong(ProxyEntry::sizeBytes).sum();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void flush() throws IOException {
+        persist();
+    }
+
+    private void evict(String keep) {
+        long total = entries.values().stream().mapToLong(ProxyEntry::sizeBytes).sum();
+        List<Map.Entry<String, ProxyEntry>> byAge = new ArrayList<>(entries.entrySet());
+        byAge.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess()));
+        for (Map.Entry<String, ProxyEntry> candidate : byAge) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (candidate.getKey().equals(keep)) {
+                continue;
+            }
+            entries.remove(candidate.getKey());
+            delete(candidate.getValue());
+            total -= candidate.getValue().sizeBytes();
+            LOGGER.debug("Evicted proxy {} for {}", candidate.getValue().proxy(), candidate.getValue().source());
+        }
+    }
+
+    private void dropStale(Path source, String sourceKey) throws IOException {
+        String path = source.toAbsolutePath().normalize().toString();
+        boolean removed = entries.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(sourceKey + "/") && entry.getValue().source().equals(path)) {
+                delete(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+        if (removed) {
+            persist();
+        }
+    }
+
+    // Drops manifest entries whose proxy or source is gone or changed, and deletes proxy files nobody references.
+    private void cleanOrphans() throws IOException {
+        boolean changed = entries.entrySet().removeIf(entry -> {
+            ProxyEntry proxy = entry.getValue();
+            Path source = Path.of(proxy.source());
+            try {
+                if (Files.exists(proxyDir.resolve(proxy.proxy())) && Files.exists(source)
+                        && entry.getKey().startsWith(SourceIdentity.of(source) + "/")) {
+                    return false;
+                }
+            } catch (IOException ignored) {
+            }
+            delete(proxy);
+            return true;
+        });
+        Set<String> referenced = new HashSet<>();
+        entries.values().forEach(entry -> referenced.add(entry.proxy()));
+        try (var files = Files.list(proxyDir)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if ((name.endsWith(PROXY_SUFFIX) || name.endsWith(PARTIAL_SUFFIX)) && !referenced.contains(name)) {
+                    LOGGER.info("Removing orphaned proxy {}", file);
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        if (changed) {
+            persist();
+        }
+    }
+
+    private void delete(ProxyEntry entry) {
+        try {
+            Files.deleteIfExists(proxyDir.resolve(entry.proxy()));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete proxy {}", entry.proxy(), e);
+        }
+    }
+
+    private void load() throws IOException {
+        Path manifest = proxyDir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) {
+            return;
+        }
+        try {
+            entries.putAll(OBJECT_MAPPER.readValue(manifest.toFile(), new TypeReference<LinkedHashMap<String, ProxyEntry>>() { }));
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable proxy manifest {}", manifest, e);
+        }
+    }
+
+    private void persist() throws IOException {
+        Path manifest = proxyDir.resolve(MANIFEST);
+        Path temp = proxyDir.resolve(MANIFEST + ".tmp");
+        byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(entries);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(bytes));
+            channel.force(true);
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String baseName(Path source, ProxyProfile profile) throws IOException {
+        String fileName = source.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String stem = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String suffix = profile == ProxyProfile.STANDARD ? "" : "-" + profile.name().toLowerCase(Locale.ROOT);
+        return stem + "-" + SourceIdentity.of(source).substring(0, 16) + suffix;
+    }
+
+    private static String entryKey(String sourceKey, ProxyProfile profile) {
+        return sourceKey + "/" + profile.name();
+    }
+
+    record ProxyEntry(String source, long sourceSize, long sourceModified, String proxy, long sizeBytes, long lastAccess) {
+        ProxyEntry touched() {
+            return new ProxyEntry(source, sourceSize, sourceModified, proxy, sizeBytes, System.currentTimeMillis());
+        }
+    }
+}
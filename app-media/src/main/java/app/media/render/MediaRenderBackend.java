@@ -0,0 +1,325 @@
+package app.media.render;
+
+import app.media.effect.EffectParameters;
+import app.media.export.SegmentedExporter;
+import app.media.effect.EffectPipeline;
+import app.render.ProgressReporter;
+import app.render.RenderBackend;
+import app.render.RenderClip;
+import app.render.RenderJob;
+import app.render.RenderPreset;
+import app.render.RenderSegment;
+import app.render.RenderTaskContext;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MediaRenderBackend implements RenderBackend {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MediaRenderBackend.class);
+    private static final int SAMPLE_RATE = 48_000;
+    private static final int AUDIO_CHANNELS = 2;
+
+    private final EffectPipeline effectPipeline;
+    private final boolean effectsEnabled;
+    private final int encodeWorkers;
+
+    public MediaRenderBackend() {
+        this(EffectParameters.identity());
+    }
+
+    public MediaRenderBackend(EffectParameters parameters) {
+        this(new EffectPipeline(parameters), !EffectParameters.identity().equals(parameters),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public MediaRenderBackend(EffectPipeline effectPipeline, boolean effectsEnabled, int encodeWorkers) {
+        this.effectPipeline = Objects.requireNonNull(effectPipeline, "effectPipeline");
+        this.effectsEnabled = effectsEnabled;
+        if (encodeWorkers <= 0) {
+            throw new IllegalArgumentException("encodeWorkers must be > 0");
+        }
+        this.encodeWorkers = encodeWorkers;
+    }
+
+    @Override
+    public String cacheKey() {
+        if (!effectsEnabled) {
+            return getClass().getName() + "|no-effects";
+        }
+        String effects = effectPipeline.cacheKey();
+        return effects != null ? getClass().getName() + "|" + effects : null;
+    }
+
+    @Override
+    public void decode(RenderClip clip, RenderPreset preset, Path output, RenderTaskContext context) throws Exception {
+        if (!Files.exists(clip.source())) {
+            throw new IOException("Clip source not found: " + clip.source());
+        }
+        createParent(output);
+        long sourceStart = micros(clip.sourceOffset());
+        long frames = frameCount(clip.duration(), preset.frameRate());
+        long sourceLength = Math.round(micros(clip.duration()) * clip.playbackRate());
+        long samplesNeeded = sampleCount(clip.duration());
+        boolean copyAudio = clip.playbackRate() == 1.0;
+
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(clip.source().toFile());
+             FFmpegFrameRecorder recorder = intermediateRecorder(output, preset)) {
+            grabber.start();
+            recorder.start();
+            if (sourceStart > 0) {
+                grabber.setTimestamp(sourceStart);
+            }
+            long frameIndex = 0;
+            long samplesWritten = 0;
+            Frame frame;
+            while ((frameIndex < frames || (copyAudio && samplesWritten < samplesNeeded)) && (frame = grabber.grab()) != null) {
+                context.checkCancelled();
+                long position = grabber.getTimestamp() - sourceStart;
+                if (position < 0) {
+                    continue;
+                }
+                if (frame.image != null) {
+                    while (frameIndex < frames && targetMicros(frameIndex, preset.frameRate(), clip.playbackRate()) <= position) {
+                        recorder.record(frame);
+                        frameIndex++;
+                    }
+                    context.reportProgress(frameIndex / (double) frames);
+                } else if (frame.samples != null && copyAudio && position < sourceLength) {
+                    samplesWritten += recordSamples(recorder, frame, samplesNeeded - samplesWritten, 0.0);
+                }
+            }
+            padVideo(recorder, preset, frames - frameIndex);
+            padAudio(recorder, samplesNeeded - samplesWritten);
+            recorder.stop();
+            grabber.stop();
+        }
+        LOGGER.debug("Decoded {} ({} frames) into {}", clip.source(), frames, output);
+    }
+
+    @Override
+    public void applyEffects(RenderSegment segment, RenderPreset preset, Path output, RenderTaskContext context) throws Exception {
+        createParent(output);
+        long frames = frameCount(segment.duration(), preset.frameRate());
+        long samplesNeeded = sampleCount(segment.duration());
+        RenderSegment.Layer videoLayer = segment.videoLayer().orElse(null);
+        RenderSegment.Layer audioLayer = segment.audioLayer().orElse(null);
+
+        try (FFmpegFrameRecorder recorder = intermediateRecorder(output, preset);
+             Java2DFrameConverter converter = new Java2DFrameConverter()) {
+            recorder.start();
+            long frameIndex = 0;
+            if (videoLayer != null) {
+                boolean applyEffects = effectsEnabled && effectPipeline.changesVideo();
+                try (FFmpegFrameGrabber grabber = openAt(videoLayer)) {
+                    Frame frame;
+                    while (frameIndex < frames && (frame = grabber.grabImage()) != null) {
+                        context.checkCancelled();
+                        if (applyEffects) {
+                            BufferedImage processed = effectPipeline.apply(converter.getBufferedImage(frame));
+                            recorder.record(converter.convert(processed));
+                        } else {
+                            recorder.record(frame);
+                        }
+                        frameIndex++;
+                        context.reportProgress(frameIndex / (double) frames);
+                    }
+                    grabber.stop();
+                }
+            }
+            padVideo(recorder, preset, frames - frameIndex);
+
+            long samplesWritten = 0;
+            if (audioLayer != null) {
+                try (FFmpegFrameGrabber grabber = openAt(audioLayer)) {
+                    Frame frame;
+                    while (samplesWritten < samplesNeeded && (frame = grabber.grabSamples()) != null) {
+                        context.checkCancelled();
+                        samplesWritten += recordSamples(recorder, frame, samplesNeeded - samplesWritten,
+                                audioLayer.clip().audioGainDb());
+                    }
+                    grabber.stop();
+                }
+            }
+            padAudio(recorder, samplesNeeded - samplesWritten);
+            recorder.stop();
+        }
+    }
+
+    @Override
+    public void encode(RenderJob job, List<Path> segments, RenderTaskContext context) throws Exception {
+        RenderPreset preset = job.getPreset();
+        long[] lengths = new long[segments.size()];
+        long total = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            lengths[i] = lengthMicros(segments.get(i));
+            total += lengths[i];
+        }
+        long chunkTarget = Math.max(1, total / encodeWorkers);
+        long frameMicros = Math.round(1_000_000.0 / preset.frameRate());
+        List<SegmentedExporter.Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            // Intermediates are intra-only, so every frame is a valid chunk boundary.
+            List<Long> frameStarts = new ArrayList<>();
+            for (long timestamp = 0; timestamp < lengths[i]; timestamp += frameMicros) {
+                frameStarts.add(timestamp);
+            }
+            int pieces = (int) Math.max(1, (lengths[i] + chunkTarget - 1) / chunkTarget);
+            chunks.addAll(SegmentedExporter.planChunks(segments.get(i), frameStarts, 0, lengths[i], pieces));
+        }
+        ProgressReporter reporter = new ProgressReporter(snapshot -> context.reportProgress(snapshot.progress()));
+        new SegmentedExporter(encodeWorkers).export(chunks, preset.container(),
+                (output, grabber) -> outputRecorder(output, preset), job.getOutput(), reporter, context);
+        LOGGER.info("Encoded {} segments in {} chunks into {}", segments.size(), chunks.size(), job.getOutput());
+    }
+
+    private static FFmpegFrameRecorder outputRecorder(Path output, RenderPreset preset) {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), preset.width(), preset.height(), AUDIO_CHANNELS);
+        recorder.setFormat(preset.container());
+        recorder.setFrameRate(preset.frameRate());
+        recorder.setGopSize(preset.frameRate() * 2);
+        if ("h264".equals(preset.codec())) {
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        } else {
+            recorder.setVideoCodecName(preset.codec());
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV422P10LE);
+        }
+        recorder.setVideoBitrate(preset.videoBitrate());
+        recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+        recorder.setAudioBitrate(preset.audioBitrate());
+        recorder.setSampleRate(SAMPLE_RATE);
+        recorder.setAudioChannels(AUDIO_CHANNELS);
+        return recorder;
+    }
+
+    // Chunks are placed at their planned starts when concatenated, so the length must be exact; the muxer's duration
+    // tags can overstate a stream, hence the packets themselves are measured.
+    private static long lengthMicros(Path media) throws IOException {
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(media.toFile())) {
+            grabber.start();
+            AVFormatContext context = grabber.getFormatContext();
+            long length = 0;
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                if (packet.pts() != avutil.AV_NOPTS_VALUE) {
+                    AVRational timeBase = context.streams(packet.stream_index()).time_base();
+                    long end = (packet.pts() + packet.duration()) * 1_000_000L * timeBase.num() / timeBase.den();
+                    length = Math.max(length, end);
+                }
+            }
+            grabber.stop();
+            if (length <= 0) {
+                throw new IOException("Cannot determine length of " + media);
+            }
+            return length;
+        }
+    }
+
+    private static FFmpegFrameRecorder intermediateRecorder(Path output, RenderPreset preset) {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), preset.width(), preset.height(), AUDIO_CHANNELS);
+        recorder.setFormat("matroska");
+        recorder.setFrameRate(preset.frameRate());
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_MJPEG);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUVJ420P);
+        recorder.setVideoQuality(2);
+        recorder.setAudioCodec(avcodec.AV_CODEC_ID_PCM_S16LE);
+        recorder.setSampleRate(SAMPLE_RATE);
+        recorder.setAudioChannels(AUDIO_CHANNELS);
+        return recorder;
+    }
+
+    private static FFmpegFrameGrabber openAt(RenderSegment.Layer layer) throws IOException {
+        FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(layer.media().toFile());
+        grabber.setSampleRate(SAMPLE_RATE);
+        grabber.setAudioChannels(AUDIO_CHANNELS);
+        grabber.start();
+        long offset = micros(layer.offset());
+        if (offset > 0) {
+            grabber.setTimestamp(offset);
+        }
+        return grabber;
+    }
+
+    private static long recordSamples(FFmpegFrameRecorder recorder, Frame frame, long remaining, double gainDb) throws FFmpegFrameRecorder.Exception {
+        if (remaining <= 0 || !(frame.samples[0] instanceof ShortBuffer source)) {
+            return 0;
+        }
+        int channels = Math.max(1, frame.audioChannels);
+        int available = source.remaining() / channels;
+        int count = (int) Math.min(available, remaining * frame.sampleRate / SAMPLE_RATE);
+        if (count <= 0) {
+            return 0;
+        }
+        short[] samples = new short[count * channels];
+        source.duplicate().get(samples);
+        if (gainDb != 0.0) {
+            double gain = Math.pow(10.0, gainDb / 20.0);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(samples[i] * gain)));
+            }
+        }
+        recorder.recordSamples(frame.sampleRate, channels, ShortBuffer.wrap(samples));
+        return (long) count * SAMPLE_RATE / frame.sampleRate;
+    }
+
+    private static void padVideo(FFmpegFrameRecorder recorder, RenderPreset preset, long missing) throws FFmpegFrameRecorder.Exception {
+        if (missing <= 0) {
+            return;
+        }
+        Frame black = new Frame(preset.width(), preset.height(), Frame.DEPTH_UBYTE, 3);
+        for (long i = 0; i < missing; i++) {
+            recorder.record(black);
+        }
+    }
+
+    private static void padAudio(FFmpegFrameRecorder recorder, long missing) throws FFmpegFrameRecorder.Exception {
+        long remaining = missing;
+        short[] silence = new short[SAMPLE_RATE / 10 * AUDIO_CHANNELS];
+        while (remaining > 0) {
+            int count = (int) Math.min(remaining, SAMPLE_RATE / 10);
+            Buffer buffer = ShortBuffer.wrap(silence, 0, count * AUDIO_CHANNELS);
+            recorder.recordSamples(SAMPLE_RATE, AUDIO_CHANNELS, buffer);
+            remaining -= count;
+        }
+    }
+
+    private static void createParent(Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+    }
+
+    private static long targetMicros(long frameIndex, int frameRate, double playbackRate) {
+        return Math.round(frameIndex * 1_000_000.0 * playbackRate / frameRate);
+    }
+
+    private static long frameCount(Duration duration, int frameRate) {
+        return Math.max(1, Math.round(duration.toNanos() / 1_000_000_000.0 * frameRate));
+    }
+
+    private static long sampleCount(Duration duration) {
+        return Math.round(duration.toNanos() / 1_000_000_000.0 * SAMPLE_RATE);
+    }
+
+    private static long micros(Duration duration) {
+        return duration.toNanos() / 1_000;
+    }
+}
@@ -0,0 +1,37 @@
+package app.media.render;
+
+import app.render.TimelineResolver;
+import app.render.farm.RenderFarmWorker;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ServiceLoader;
+import java.util.concurrent.CountDownLatch;
+
+// Usage: RenderWorkerMain <spool-dir> [worker-id] [slots]
+// The project format is owned by the application, so the TimelineResolver is looked up via ServiceLoader.
+public final class RenderWorkerMain {
+    private RenderWorkerMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: RenderWorkerMain <spool-dir> [worker-id] [slots]");
+            System.exit(2);
+        }
+        Path spool = Path.of(args[0]);
+        String workerId = args.length > 1 ? args[1] : InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        int slots = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        TimelineResolver resolver = ServiceLoader.load(TimelineResolver.class).findFirst()
+                .orElseThrow(() -> new IllegalStateException("No " + TimelineResolver.class.getName() + " service registered"));
+
+        RenderFarmWorker worker = new RenderFarmWorker(spool, workerId, slots, resolver, new MediaRenderBackend(),
+                Duration.ofSeconds(1));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            worker.shutdown();
+            stopped.countDown();
+        }, "montage-worker-shutdown"));
+        stopped.await();
+    }
+}
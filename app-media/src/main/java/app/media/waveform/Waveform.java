@@ -0,0 +1,63 @@
+package app.media.waveform;
+
+import java.nio.ShortBuffer;
+
+// Min/max peaks of a mono mixdown. Level k holds one peak pair per samplesPerPeak * 2^k samples.
+public final class Waveform {
+    private final int sampleRate;
+    private final int samplesPerPeak;
+    private final ShortBuffer[] levels;
+
+    Waveform(int sampleRate, int samplesPerPeak, ShortBuffer[] levels) {
+        this.sampleRate = sampleRate;
+        this.samplesPerPeak = samplesPerPeak;
+        this.levels = levels;
+    }
+
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    public int levels() {
+        return levels.length;
+    }
+
+    public int count(int level) {
+        return levels[level].limit() / 2;
+    }
+
+    public double peakSeconds(int level) {
+        return (double) samplesPerPeak * (1L << level) / sampleRate;
+    }
+
+    // The coarsest level that still has at least one peak per pixel.
+    public int levelFor(double secondsPerPixel) {
+        int level = 0;
+        while (level + 1 < levels.length && peakSeconds(level + 1) <= secondsPerPixel) {
+            level++;
+        }
+        return level;
+    }
+
+    // Fills minMax with the lowest and highest sample in [fromSeconds, toSeconds), normalised to [-1, 1].
+    // Returns false when the range lies outside the source.
+    public boolean range(int level, double fromSeconds, double toSeconds, float[] minMax) {
+        ShortBuffer peaks = levels[level];
+        int count = count(level);
+        double peakSeconds = peakSeconds(level);
+        int first = (int) Math.max(0, Math.floor(fromSeconds / peakSeconds));
+        int last = (int) Math.min(count, Math.ceil(toSeconds / peakSeconds));
+        if (first >= count || last <= first) {
+            return false;
+        }
+        int min = Short.MAX_VALUE;
+        int max = Short.MIN_VALUE;
+        for (int i = first; i < last; i++) {
+            min = Math.min(min, peaks.get(i * 2));
+            max = Math.max(max, peaks.get(i * 2 + 1));
+        }
+        minMax[0] = min / 32768f;
+        minMax[1] = max / 32768f;
+        return true;
+    }
+}
@@ -0,0 +1,241 @@
+package app.media.waveform;
+
+import app.util.FailureBackoff;
+import app.util.SourceIdentity;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Decodes each audio source once into a peak file of min/max pyramids that is memory-mapped for drawing.
+public class WaveformService implements Closeable {
+    static final int SAMPLES_PER_PEAK = 128;
+    private static final Logger LOGGER = LoggerFactory.getLogger(WaveformService.class);
+    private static final int MAGIC = 0x4d575631;
+    private static final int MAX_LEVELS = 16;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(10);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(10);
+
+    private final Path peakDir;
+    private final ExecutorService analyzer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "montage-waveform");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentHashMap<String, Waveform> ready = new ConcurrentHashMap<>();
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final FailureBackoff failures;
+
+    public WaveformService(Path peakDir) {
+        this(peakDir, new FailureBackoff(RETRY_DELAY, MAX_RETRY_DELAY));
+    }
+
+    WaveformService(Path peakDir, FailureBackoff failures) {
+        this.peakDir = Objects.requireNonNull(peakDir, "peakDir");
+        this.failures = Objects.requireNonNull(failures, "failures");
+    }
+
+    // Returns the waveform if it is loaded; otherwise analyses the source in the background and calls onReady.
+    public Waveform waveform(Path source, Runnable onReady) {
+        Objects.requireNonNull(source, "source");
+        String id;
+        try {
+            id = SourceIdentity.of(source);
+        } catch (IOException e) {
+            return null;
+        }
+        Waveform waveform = ready.get(id);
+        if (waveform != null || !failures.shouldAttempt(source, id) || !scheduled.add(id)) {
+            return waveform;
+        }
+        analyzer.execute(() -> {
+            try {
+                load(source, id);
+                failures.succeeded(source);
+                if (onReady != null) {
+                    onReady.run();
+                }
+            } catch (Exception e) {
+                failures.failed(source, id);
+                LOGGER.warn("Failed to build waveform for {}", source, e);
+            } finally {
+                scheduled.remove(id);
+            }
+        });
+        return null;
+    }
+
+    public Waveform load(Path source) throws IOException {
+        return load(source, SourceIdentity.of(source));
+    }
+
+    @Override
+    public void close() {
+        analyzer.shutdownNow();
+    }
+
+    private Waveform load(Path source, String id) throws IOException {
+        Waveform cached = ready.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        Path peakFile = peakDir.resolve(id + ".peaks");
+        if (Files.exists(peakFile)) {
+            try {
+                return publish(id, read(peakFile));
+            } catch (IOException e) {
+                LOGGER.warn("Discarding unreadable peak file {}", peakFile, e);
+                Files.deleteIfExists(peakFile);
+            }
+        }
+        Files.createDirectories(peakDir);
+        long started = System.nanoTime();
+        write(peakFile, analyze(source));
+        LOGGER.debug("Analysed waveform of {} in {} ms", source, (System.nanoTime() - started) / 1_000_000);
+        return publish(id, read(peakFile));
+    }
+
+    private Waveform publish(String id, Waveform waveform) {
+        ready.put(id, waveform);
+        return waveform;
+    }
+
+    private static Peaks analyze(Path source) throws IOException {
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(source.toFile())) {
+            grabber.setAudioChannels(1);
+            grabber.start();
+            if (grabber.getAudioChannels() <= 0 || grabber.getSampleRate() <= 0) {
+                throw new IOException("No audio stream in " + source);
+            }
+            short[] peaks = new short[1024];
+            int peakCount = 0;
+            int min = Short.MAX_VALUE;
+            int max = Short.MIN_VALUE;
+            int filled = 0;
+            Frame frame;
+            while ((frame = grabber.grabSamples()) != null) {
+                if (frame.samples == null) {
+                    continue;
+                }
+                Buffer samples = frame.samples[0];
+                int channels = Math.max(1, frame.audioChannels);
+                int length = samples.remaining();
+                for (int i = 0; i < length; i += channels) {
+                    int value = sample(samples, samples.position() + i);
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    if (++filled == SAMPLES_PER_PEAK) {
+                        if (peakCount * 2 + 2 > peaks.length) {
+                            peaks = Arrays.copyOf(peaks, peaks.length * 2);
+                        }
+                        peaks[peakCount * 2] = (short) min;
+                        peaks[peakCount * 2 + 1] = (short) max;
+                        peakCount++;
+                        min = Short.MAX_VALUE;
+                        max = Short.MIN_VALUE;
+                        filled = 0;
+                    }
+                }
+            }
+            if (filled > 0) {
+                peaks = Arrays.copyOf(peaks, peakCount * 2 + 2);
+                peaks[peakCount * 2] = (short) min;
+                peaks[peakCount * 2 + 1] = (short) max;
+                peakCount++;
+            }
+            return new Peaks(grabber.getSampleRate(), Arrays.copyOf(peaks, peakCount * 2));
+        } catch (FFmpegFrameGrabber.Exception e) {
+            throw new IOException("Failed to decode audio from " + source, e);
+        }
+    }
+
+    private static int sample(Buffer samples, int index) {
+        if (samples instanceof ShortBuffer shorts) {
+            return shorts.get(index);
+        }
+        if (samples instanceof FloatBuffer floats) {
+            return (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, floats.get(index) * 32767f));
+        }
+        throw new IllegalStateException("Unsupported sample buffer " + samples.getClass().getSimpleName());
+    }
+
+    // Layout: magic, sample rate, samples per peak, level count, peak count per level, then each level's
+    // interleaved min/max shorts, coarser levels after finer ones.
+    private static void write(Path peakFile, Peaks peaks) throws IOException {
+        List<short[]> levels = new ArrayList<>();
+        levels.add(peaks.level0());
+        while (levels.size() < MAX_LEVELS && levels.get(levels.size() - 1).length > 2) {
+            short[] finer = levels.get(levels.size() - 1);
+            int count = (finer.length / 2 + 1) / 2;
+            short[] coarser = new short[count * 2];
+            for (int i = 0; i < count; i++) {
+                int a = i * 4;
+                int b = Math.min(a + 2, finer.length - 2);
+                coarser[i * 2] = (short) Math.min(finer[a], finer[b]);
+                coarser[i * 2 + 1] = (short) Math.max(finer[a + 1], finer[b + 1]);
+            }
+            levels.add(coarser);
+        }
+        long dataBytes = levels.stream().mapToLong(level -> (long) level.length * Short.BYTES).sum();
+        int headerBytes = Integer.BYTES * (4 + levels.size());
+        Path temp = peakFile.resolveSibling(peakFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes + dataBytes);
+            out.putInt(MAGIC).putInt(peaks.sampleRate()).putInt(SAMPLES_PER_PEAK).putInt(levels.size());
+            levels.forEach(level -> out.putInt(level.length / 2));
+            ShortBuffer data = out.slice().asShortBuffer();
+            levels.forEach(data::put);
+            out.force();
+        }
+        Files.move(temp, peakFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Waveform read(Path peakFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(peakFile, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < Integer.BYTES * 4 || mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a peak file: " + peakFile);
+            }
+            int sampleRate = mapped.getInt(4);
+            int samplesPerPeak = mapped.getInt(8);
+            int levelCount = mapped.getInt(12);
+            if (sampleRate <= 0 || samplesPerPeak <= 0 || levelCount <= 0 || levelCount > MAX_LEVELS) {
+                throw new IOException("Corrupt peak file: " + peakFile);
+            }
+            int offset = Integer.BYTES * (4 + levelCount);
+            ShortBuffer[] levels = new ShortBuffer[levelCount];
+            for (int level = 0; level < levelCount; level++) {
+                int shorts = mapped.getInt(Integer.BYTES * (4 + level)) * 2;
+                if (shorts < 0 || offset + (long) shorts * Short.BYTES > channel.size()) {
+                    throw new IOException("Corrupt peak file: " + peakFile);
+                }
+                levels[level] = mapped.slice(offset, shorts * Short.BYTES).asShortBuffer();
+                offset += shorts * Short.BYTES;
+            }
+            return new Waveform(sampleRate, samplesPerPeak, levels);
+        }
+    }
+
+    private record Peaks(int sampleRate, short[] level0) { }
+}
@@ -0,0 +1,156 @@
+package app.media.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameCacheTest {
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    void memoryTierIsBoundedByBytes() throws Exception {
+        long frameBytes = 64L * 64 * 4;
+        FrameCache cache = new FrameCache(cacheDir, 100, frameBytes * 3);
+        for (int i = 0; i < 10; i++) {
+            cache.get("frame-" + i, () -> image(64, 64, 0xff336699));
+        }
+        assertTrue(cache.memoryBytes() <= frameBytes * 3, "memory bytes " + cache.memoryBytes());
+        assertEquals(3, cache.memoryEntries());
+    }
+
+    @Test
+    void recentlyUsedEntriesSurviveEviction() throws Exception {
+        FrameCache cache = new FrameCache(cacheDir, 2, Long.MAX_VALUE);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("hot", () -> {
+            loads.incrementAndGet();
+            return image(8, 8, 0xffff0000);
+        });
+        cache.get("cold", () -> image(8, 8, 0xff00ff00));
+        cache.get("hot", () -> image(8, 8, 0));
+        cache.get("new", () -> image(8, 8, 0xff0000ff));
+
+        assertEquals(2, cache.memoryEntries());
+        BufferedImage hot = cache.get("hot", () -> {
+            throw new AssertionError("hot frame should still be cached");
+        });
+        assertEquals(0xffff0000, hot.getRGB(3, 3));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void returnsPixelsFromOffHeapCopy() throws Exception {
+        FrameCache cache = new FrameCache(cacheDir, 4);
+        BufferedImage bgr = new BufferedImage(16, 9, BufferedImage.TYPE_3BYTE_BGR);
+        bgr.setRGB(5, 4, 0x123456);
+        cache.get("bgr", () -> bgr);
+
+        BufferedImage hit = cache.get("bgr", () -> null);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, hit.getType());
+        assertEquals(0xff123456, hit.getRGB(5, 4));
+    }
+
+    @Test
+    void missesAndHitsReturnTheSameImageType() throws Exception {
+        FrameCache cache = new FrameCache(cacheDir, 4);
+        BufferedImage premultiplied = new BufferedImage(16, 9, BufferedImage.TYPE_INT_ARGB_PRE);
+        premultiplied.setRGB(5, 4, 0xff123456);
+
+        BufferedImage miss = cache.get("pre", () -> premultiplied);
+        BufferedImage hit = cache.get("pre", () -> null);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, miss.getType());
+        assertEquals(BufferedImage.TYPE_INT_ARGB, hit.getType());
+        assertEquals(0xff123456, miss.getRGB(5, 4));
+        assertEquals(0xff123456, hit.getRGB(5, 4));
+    }
+
+    @Test
+    void evictedFramesHandTheirMemoryToNewOnes() throws Exception {
+        long frameBytes = 64L * 64 * 4;
+        FrameCache cache = new FrameCache(cacheDir, 100, frameBytes * 3);
+        for (int i = 0; i < 50; i++) {
+            int argb = 0xff000000 | i;
+            cache.get("frame-" + i, () -> image(64, 64, argb));
+        }
+        assertTrue(cache.reservedBytes() <= frameBytes * 3, "reserved bytes " + cache.reservedBytes());
+        for (int i = 47; i < 50; i++) {
+            BufferedImage hit = cache.get("frame-" + i, () -> {
+                throw new AssertionError("recent frame should still be cached");
+            });
+            assertEquals(0xff000000 | i, hit.getRGB(63, 63));
+        }
+    }
+
+    @Test
+    void hitsRefillAMatchingImageInsteadOfAllocating() throws Exception {
+        FrameCache cache = new FrameCache(cacheDir, 4);
+        cache.get("red", () -> image(16, 9, 0xffff0000));
+        cache.get("blue", () -> image(16, 9, 0xff0000ff));
+
+        BufferedImage reuse = new BufferedImage(16, 9, BufferedImage.TYPE_INT_ARGB);
+        assertSame(reuse, cache.get("red", reuse, () -> null));
+        assertEquals(0xffff0000, reuse.getRGB(2, 2));
+        assertSame(reuse, cache.get("blue", reuse, () -> null));
+        assertEquals(0xff0000ff, reuse.getRGB(2, 2));
+
+        BufferedImage wrongLayout = new BufferedImage(16, 9, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage copy = cache.get("red", wrongLayout, () -> null);
+        assertNotSame(wrongLayout, copy);
+        assertEquals(0xffff0000, copy.getRGB(2, 2));
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        FrameCache cache = new FrameCache(cacheDir, 4);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<BufferedImage>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(pool.submit(() -> cache.get("shared", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    return image(8, 8, 0xff445566);
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<BufferedImage> result : results) {
+                assertEquals(0xff445566, result.get(5, TimeUnit.SECONDS).getRGB(1, 1));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    private static BufferedImage image(int width, int height, int argb) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,156 @@
+package app.media.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameStoreTest {
+    private static final long SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path storeDir;
+
+    @Test
+    void framesSurviveReopen() throws Exception {
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            store.write(key(1), 4, 2, BufferedImage.TYPE_INT_ARGB, pixels(8, 0x01020304));
+            store.write(key(2), 4, 2, BufferedImage.TYPE_INT_ARGB, pixels(8, 0x05060708));
+        }
+
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            assertEquals(2, store.entries());
+            FrameStore.Slice slice = store.read(key(2));
+            assertNotNull(slice);
+            assertEquals(4, slice.width());
+            assertEquals(2, slice.height());
+            assertEquals(BufferedImage.TYPE_INT_ARGB, slice.type());
+            assertEquals(0x05060708, slice.pixels().getInt(12));
+            assertNull(store.read(key(3)));
+        }
+    }
+
+    @Test
+    void oldestSegmentsAreDroppedAtSizeCap() throws Exception {
+        int frameInts = (int) (SEGMENT_BYTES / 2 / Integer.BYTES);
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 2, SEGMENT_BYTES)) {
+            for (int i = 0; i < 8; i++) {
+                store.write(key(i), frameInts, 1, BufferedImage.TYPE_INT_RGB, pixels(frameInts, i));
+            }
+            assertTrue(store.sizeBytes() <= SEGMENT_BYTES * 2, "size " + store.sizeBytes());
+            assertNull(store.read(key(0)));
+            FrameStore.Slice newest = store.read(key(7));
+            assertNotNull(newest);
+            assertEquals(7, newest.pixels().getInt(0));
+        }
+        try (var files = Files.list(storeDir)) {
+            assertTrue(files.filter(file -> file.toString().endsWith(".seg")).count() <= 2);
+        }
+    }
+
+    @Test
+    void recycledSlotsAreNeitherServedNorReloaded() throws Exception {
+        int frameInts = (int) (SEGMENT_BYTES / 2 / Integer.BYTES);
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 2, SEGMENT_BYTES)) {
+            store.write(key(0), frameInts, 1, BufferedImage.TYPE_INT_RGB, pixels(frameInts, 0));
+            String copied = store.read(key(0), slice -> {
+                for (int i = 1; i < 6; i++) {
+                    try {
+                        store.write(key(i), frameInts, 1, BufferedImage.TYPE_INT_RGB, pixels(frameInts, i));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return "copied";
+            });
+            assertNull(copied);
+        }
+
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 2, SEGMENT_BYTES)) {
+            for (int i = 0; i < 4; i++) {
+                assertNull(store.read(key(i)), "frame " + i);
+            }
+            assertEquals(5, store.read(key(5)).pixels().getInt(0));
+            assertEquals(4, store.read(key(4)).pixels().getInt(0));
+        }
+    }
+
+    @Test
+    void clearKeepsSegmentFilesButForgetsTheirFrames() throws Exception {
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            store.write(key(1), 2, 2, BufferedImage.TYPE_INT_RGB, pixels(4, 42));
+            store.clear();
+            assertEquals(0, store.entries());
+            assertNull(store.read(key(1)));
+            try (var files = Files.list(storeDir)) {
+                assertTrue(files.anyMatch(file -> file.toString().endsWith(".seg")));
+            }
+            store.write(key(2), 2, 2, BufferedImage.TYPE_INT_RGB, pixels(4, 43));
+        }
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            assertEquals(1, store.entries());
+            assertNull(store.read(key(1)));
+            assertEquals(43, store.read(key(2)).pixels().getInt(0));
+        }
+    }
+
+    @Test
+    void tornIndexTailIsIgnored() throws Exception {
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            store.write(key(1), 2, 2, BufferedImage.TYPE_INT_RGB, pixels(4, 42));
+        }
+        try (FileChannel index = FileChannel.open(storeDir.resolve("frames.idx"), StandardOpenOption.APPEND)) {
+            index.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5}));
+        }
+
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            assertEquals(1, store.entries());
+            store.write(key(2), 2, 2, BufferedImage.TYPE_INT_RGB, pixels(4, 43));
+        }
+        try (FrameStore store = new FrameStore(storeDir, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            assertEquals(42, store.read(key(1)).pixels().getInt(0));
+            assertEquals(43, store.read(key(2)).pixels().getInt(0));
+        }
+    }
+
+    @Test
+    void frameCacheServesDiskHitsAfterRestart() throws Exception {
+        BufferedImage frame = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        frame.setRGB(3, 5, 0xff102030);
+        try (FrameCache cache = new FrameCache(storeDir, 4, Long.MAX_VALUE, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            cache.get("frame", () -> frame);
+        }
+        try (FrameCache cache = new FrameCache(storeDir, 4, Long.MAX_VALUE, SEGMENT_BYTES * 4, SEGMENT_BYTES)) {
+            BufferedImage hit = cache.get("frame", () -> {
+                throw new AssertionError("frame should come from the disk tier");
+            });
+            assertEquals(0xff102030, hit.getRGB(3, 5));
+        }
+    }
+
+    private static String key(int n) {
+        byte[] key = new byte[20];
+        key[19] = (byte) n;
+        return HexFormat.of().formatHex(key);
+    }
+
+    private static ByteBuffer pixels(int ints, int value) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ints * Integer.BYTES).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < ints; i++) {
+            buffer.putInt(value);
+        }
+        return buffer.flip();
+    }
+}
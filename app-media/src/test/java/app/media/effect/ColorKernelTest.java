@@ -0,0 +1,33 @@
+package app.media.effect;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ColorKernelTest {
+    @Test
+    void vectorKernelMatchesScalarKernelBitForBit() throws IOException {
+        assumeTrue(ColorKernel.VECTORIZED, "Vector API not available");
+        Random random = new Random(42);
+        // An odd length so the scalar tail after the last full vector is covered too.
+        int[] source = new int[4099];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = random.nextInt();
+        }
+        double[] values = {-1.0, -0.35, 0.0, 0.2, 1.0};
+        for (double brightness : values) {
+            for (double contrast : values) {
+                for (double saturation : values) {
+                    ColorKernel kernel = ColorKernel.compile(new EffectParameters(brightness, contrast, saturation, null, null, 0.0, 0.0));
+                    int[] vector = source.clone();
+                    int[] scalar = source.clone();
+                    kernel.apply(vector, 3, vector.length);
+                    kernel.applyScalar(scalar, 3, scalar.length);
+                    assertArrayEquals(scalar, vector, "b=" + brightness + " c=" + contrast + " s=" + saturation);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package app.media.effect;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CubeLutTest {
+    @TempDir
+    Path workDir;
+
+    @Test
+    void identityCubeLeavesColoursAloneAndInvertingCubeInterpolates() throws IOException {
+        CubeLut identity = CubeLut.load(writeCube("identity.cube", 17, false));
+        for (int value = 0; value < 256; value += 5) {
+            int packed = identity.apply(value, 255 - value, value / 2);
+            assertEquals(value, (packed >>> 16) & 0xFF, 1);
+            assertEquals(255 - value, (packed >>> 8) & 0xFF, 1);
+            assertEquals(value / 2, packed & 0xFF, 1);
+        }
+
+        // A 2-point cube only has corners, so every in-between value comes from interpolation.
+        CubeLut invert = CubeLut.load(writeCube("invert.cube", 2, true));
+        assertEquals(0xFFFFFF, invert.apply(0, 0, 0));
+        assertEquals(0x7F3FBF, invert.apply(128, 192, 64) & 0xFFFFFF, "0x" + Integer.toHexString(invert.apply(128, 192, 64)));
+    }
+
+    @Test
+    void pipelineAppliesLutAfterGradeInOnePass() throws IOException {
+        Path cube = writeCube("invert.cube", 2, true);
+        BufferedImage source = new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR);
+        source.setRGB(0, 0, 0x604020);
+
+        EffectPipeline pipeline = new EffectPipeline(new EffectParameters(0.1, 0.0, 0.0, cube, null, 0.0, 0.0));
+        int brightened = 0x604020 + 0x1A1A1A;
+        assertEquals(0xFF000000 | (0xFFFFFF - brightened), pipeline.apply(source).getRGB(0, 0));
+    }
+
+    @Test
+    void pipelineCacheKeyFollowsLutContentsNotJustItsPath() throws IOException {
+        Path cube = writeCube("grade.cube", 2, false);
+        EffectParameters parameters = new EffectParameters(0.0, 0.0, 0.0, cube, null, 0.0, 0.0);
+        String identityKey = new EffectPipeline(parameters).cacheKey();
+        assertEquals(identityKey, new EffectPipeline(parameters).cacheKey());
+
+        writeCube("grade.cube", 2, true);
+        assertNotEquals(identityKey, new EffectPipeline(parameters).cacheKey());
+    }
+
+    @Test
+    void inputRangeKeywordsAreHonouredAndUnknownKeywordsSkipped() throws IOException {
+        CubeLut full = CubeLut.load(writeCube("full.cube", 2, true,
+                "LUT_1D_INPUT_RANGE 0.0 1.0\nLUT_3D_INPUT_RANGE 0.0 1.0\nLUT_IN_VIDEO_RANGE\n"));
+        assertEquals(0xFFFFFF, full.apply(0, 0, 0));
+        assertEquals(0x000000, full.apply(255, 255, 255));
+
+        // Half the usual domain: 64 is already halfway through the cube and 128 saturates it.
+        CubeLut half = CubeLut.load(writeCube("half.cube", 2, true, "LUT_3D_INPUT_RANGE 0.0 0.5\n"));
+        int halfway = half.apply(64, 64, 64);
+        for (int shift = 0; shift < 24; shift += 8) {
+            assertEquals(127, (halfway >>> shift) & 0xFF, 1);
+        }
+        assertEquals(0x000000, half.apply(128, 128, 128));
+    }
+
+    @Test
+    void malformedCubeIsRejected() throws IOException {
+        Path truncated = workDir.resolve("short.cube");
+        Files.writeString(truncated, "LUT_3D_SIZE 2\n0 0 0\n1 1 1\n");
+        assertThrows(IOException.class, () -> CubeLut.load(truncated));
+        assertThrows(IllegalArgumentException.class,
+                () -> new EffectPipeline(new EffectParameters(0.0, 0.0, 0.0, truncated, null, 0.0, 0.0)));
+    }
+
+    private Path writeCube(String name, int size, boolean inverted) throws IOException {
+        return writeCube(name, size, inverted, "");
+    }
+
+    private Path writeCube(String name, int size, boolean inverted, String keywords) throws IOException {
+        StringBuilder cube = new StringBuilder("TITLE \"test\"\n# generated\n").append(keywords)
+                .append("LUT_3D_SIZE ").append(size).append('\n');
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    double[] rgb = {r / (size - 1.0), g / (size - 1.0), b / (size - 1.0)};
+                    for (double channel : rgb) {
+                        cube.append(String.format(Locale.ROOT, "%.6f ", inverted ? 1.0 - channel : channel));
+                    }
+                    cube.setLength(cube.length() - 1);
+                    cube.append('\n');
+                }
+            }
+        }
+        return Files.writeString(workDir.resolve(name), cube);
+    }
+}
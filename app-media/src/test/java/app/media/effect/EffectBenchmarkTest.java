@@ -0,0 +1,54 @@
+package app.media.effect;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Throughput numbers only; excluded from the default build and run with mvn test -Pbenchmark.
+@Tag("benchmark")
+class EffectBenchmarkTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EffectBenchmarkTest.class);
+    private static final int RUNS = 20;
+
+    @Test
+    void scalarAndVectorColourKernels() throws IOException {
+        ColorKernel kernel = ColorKernel.compile(new EffectParameters(0.1, 0.2, 0.3, null, null, 0.0, 0.0));
+        int[] frame = new Random(1).ints(1920 * 1080).toArray();
+        for (int i = 0; i < RUNS; i++) {
+            kernel.applyScalar(frame, 0, frame.length);
+            kernel.apply(frame, 0, frame.length);
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            kernel.applyScalar(frame, 0, frame.length);
+        }
+        long scalar = System.nanoTime() - started;
+        started = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            kernel.apply(frame, 0, frame.length);
+        }
+        long selected = System.nanoTime() - started;
+        LOGGER.info("1080p colour kernel: scalar {} ms, selected ({}) {} ms per frame", String.format("%.2f", scalar / 1e6 / RUNS),
+                ColorKernel.VECTORIZED ? "vector" : "scalar", String.format("%.2f", selected / 1e6 / RUNS));
+    }
+
+    @Test
+    void pipelineColourPass() {
+        EffectPipeline pipeline = new EffectPipeline(new EffectParameters(0.2, 0.1, 0.3, null, null, 0.0, 0.0));
+        BufferedImage frame = new BufferedImage(1920, 1080, BufferedImage.TYPE_3BYTE_BGR);
+        int[] noise = new Random(2).ints(1920 * 1080).toArray();
+        frame.setRGB(0, 0, 1920, 1080, noise, 0, 1920);
+        for (int i = 0; i < RUNS; i++) {
+            pipeline.apply(frame);
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            pipeline.apply(frame);
+        }
+        LOGGER.info("1080p colour pass: {} ms per frame", String.format("%.2f", (System.nanoTime() - started) / 1e6 / RUNS));
+    }
+}
@@ -0,0 +1,202 @@
+package app.media.effect;
+
+import app.media.TestMediaFactory;
+import java.awt.image.BufferedImage;
+import java.awt.image.RescaleOp;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EffectPipelineTest {
+    @TempDir
+    Path workDir;
+
+    @Test
+    void brightnessAndContrastMatchRescaleOp() {
+        BufferedImage source = gradient(64, 16);
+        BufferedImage expected = new BufferedImage(64, 16, BufferedImage.TYPE_INT_ARGB);
+        expected.getGraphics().drawImage(source, 0, 0, null);
+        new RescaleOp(new float[] {1.4f, 1.4f, 1.4f, 1f}, new float[] {-0.1f * 255, -0.1f * 255, -0.1f * 255, 0f}, null)
+                .filter(expected, expected);
+
+        BufferedImage actual = new EffectPipeline(new EffectParameters(-0.1, 0.4, 0.0, null, null, 0.0, 0.0)).apply(source);
+
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 64; x++) {
+                int want = expected.getRGB(x, y);
+                int got = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    assertEquals((want >>> shift) & 0xFF, (got >>> shift) & 0xFF, 1.0, "pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void saturationScalesDistanceFromLuma() {
+        BufferedImage source = new BufferedImage(2, 1, BufferedImage.TYPE_3BYTE_BGR);
+        source.setRGB(0, 0, 0xC04020);
+        source.setRGB(1, 0, 0x808080);
+
+        BufferedImage gray = new EffectPipeline(new EffectParameters(0.0, 0.0, -1.0, null, null, 0.0, 0.0)).apply(source);
+        int luma = (0xC0 * PixelKernels.LUMA_RED + 0x40 * PixelKernels.LUMA_GREEN + 0x20 * PixelKernels.LUMA_BLUE + 32768) >> 16;
+        assertEquals(0xFF000000 | luma << 16 | luma << 8 | luma, gray.getRGB(0, 0));
+        assertEquals(0xFF808080, gray.getRGB(1, 0));
+
+        BufferedImage vivid = new EffectPipeline(new EffectParameters(0.0, 0.0, 1.0, null, null, 0.0, 0.0)).apply(source);
+        int pixel = vivid.getRGB(0, 0);
+        assertTrue(((pixel >>> 16) & 0xFF) > 0xC0 && ((pixel >>> 8) & 0xFF) < 0x40, Integer.toHexString(pixel));
+        assertEquals(0xFF808080, vivid.getRGB(1, 0));
+    }
+
+    @Test
+    void workingBufferIsReusedAcrossFrames() {
+        EffectPipeline pipeline = new EffectPipeline(new EffectParameters(0.2, 0.1, 0.3, null, null, 0.0, 0.0));
+        BufferedImage frame = gradient(640, 360);
+        BufferedImage first = pipeline.apply(frame);
+        assertSame(first, pipeline.apply(frame));
+    }
+
+    @Test
+    void processRunsEveryFrameThroughTheStagesInOrder() throws Exception {
+        Path input = TestMediaFactory.createSampleVideo(workDir.resolve("input.mp4"), 320, 240, 24, 24.0);
+        Path output = workDir.resolve("graded.mp4");
+        new EffectPipeline(new EffectParameters(0.0, 0.0, -1.0, null, null, 0.0, 0.0)).process(input, output);
+
+        try (FFmpegFrameGrabber source = FFmpegFrameGrabber.createDefault(input.toFile());
+             FFmpegFrameGrabber graded = FFmpegFrameGrabber.createDefault(output.toFile());
+             Java2DFrameConverter sourceConverter = new Java2DFrameConverter();
+             Java2DFrameConverter gradedConverter = new Java2DFrameConverter()) {
+            source.start();
+            graded.start();
+            assertTrue(graded.getAudioChannels() > 0);
+            int frames = 0;
+            Frame expected;
+            while ((expected = source.grabImage()) != null) {
+                int original = sourceConverter.getBufferedImage(expected).getRGB(160, 200);
+                Frame actual = graded.grabImage();
+                assertTrue(actual != null, "missing frame " + frames);
+                int pixel = gradedConverter.getBufferedImage(actual).getRGB(160, 200);
+                int red = (pixel >>> 16) & 0xFF;
+                int green = (pixel >>> 8) & 0xFF;
+                int blue = pixel & 0xFF;
+                assertTrue(Math.abs(red - green) <= 4 && Math.abs(green - blue) <= 4, "frame " + frames + " not gray");
+                int luma = (((original >>> 16) & 0xFF) * 2126 + ((original >>> 8) & 0xFF) * 7152 + (original & 0xFF) * 722) / 10000;
+                assertEquals(luma, green, 6, "frame " + frames + " out of order");
+                frames++;
+            }
+            assertEquals(24, frames);
+            assertEquals(null, graded.grabImage());
+        }
+    }
+
+    @Test
+    void decodeFailureWaitsForStagesBeforeClosingTheRecorder() throws Exception {
+        Path input = TestMediaFactory.createSampleVideo(workDir.resolve("input.mp4"), 320, 240, 48, 24.0);
+        Set<Thread> before = stageThreads();
+        Thread caller = Thread.currentThread();
+        AtomicInteger frames = new AtomicInteger();
+        EffectPipeline pipeline = new EffectPipeline(new EffectParameters(0.0, 0.0, -1.0, null, null, 0.0, 0.0));
+        pipeline.addPlugin(image -> {
+            if (frames.incrementAndGet() == 5) {
+                // Fails the decode side, then stays busy past it the way an encoder inside a native call would.
+                caller.interrupt();
+                long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+                while (System.nanoTime() < until) {
+                    Thread.onSpinWait();
+                }
+            }
+            return image;
+        });
+        try {
+            assertThrows(InterruptedIOException.class, () -> pipeline.process(input, workDir.resolve("failed.mp4")));
+        } finally {
+            Thread.interrupted();
+        }
+        Set<Thread> left = stageThreads();
+        left.removeAll(before);
+        assertEquals(Set.of(), left);
+    }
+
+    @Test
+    void identityPipelineCopiesInputWithoutReencoding() throws Exception {
+        Path input = TestMediaFactory.createSampleVideo(workDir.resolve("input.mp4"), 320, 240, 24, 24.0);
+        EffectPipeline identity = new EffectPipeline(EffectParameters.identity());
+        assertTrue(identity.isPassthrough());
+        BufferedImage still = gradient(8, 8);
+        assertSame(still, identity.apply(still));
+
+        Path copied = workDir.resolve("copied.mp4");
+        identity.process(input, copied);
+        // A packet copy only rewrites the container, so the size barely moves; a 5 Mbit/s re-encode would not.
+        assertEquals(Files.size(input), Files.size(copied), Files.size(input) * 0.05);
+        assertEquals(24, countFrames(input, copied, true));
+
+        // Ducking keeps video untouched but rules out a packet copy, so frames are decoded and re-encoded as they are.
+        EffectPipeline ducking = new EffectPipeline(new EffectParameters(0.0, 0.0, 0.0, null, null, 0.0, -6.0));
+        assertTrue(!ducking.isPassthrough() && !ducking.changesVideo());
+        Path reencoded = workDir.resolve("reencoded.mp4");
+        ducking.process(input, reencoded);
+        assertEquals(24, countFrames(input, reencoded, false));
+    }
+
+    // Counts decoded frames of output, checking them against input pixel for pixel when identical is set.
+    private static int countFrames(Path input, Path output, boolean identical) throws Exception {
+        try (FFmpegFrameGrabber source = FFmpegFrameGrabber.createDefault(input.toFile());
+             FFmpegFrameGrabber copy = FFmpegFrameGrabber.createDefault(output.toFile());
+             Java2DFrameConverter sourceConverter = new Java2DFrameConverter();
+             Java2DFrameConverter copyConverter = new Java2DFrameConverter()) {
+            source.start();
+            copy.start();
+            assertTrue(copy.getAudioChannels() > 0);
+            int frames = 0;
+            Frame frame;
+            while ((frame = copy.grabImage()) != null) {
+                BufferedImage actual = copyConverter.getBufferedImage(frame);
+                BufferedImage expected = sourceConverter.getBufferedImage(source.grabImage());
+                if (identical) {
+                    for (int y = 0; y < actual.getHeight(); y += 7) {
+                        for (int x = 0; x < actual.getWidth(); x += 7) {
+                            assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "frame " + frames + " at " + x + "," + y);
+                        }
+                    }
+                }
+                frames++;
+            }
+            return frames;
+        }
+    }
+
+    private static Set<Thread> stageThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("montage-effects-") && thread.isAlive()) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x + y) & 0xFF));
+            }
+        }
+        return image;
+    }
+}
@@ -3,9 +3,24 @@ package app.media.export;
 import app.media.TestMediaFactory;
 import app.media.probe.MediaMetadata;
 import app.media.probe.MediaProbe;
+import app.render.ProgressReporter;
+import java.awt.image.BufferedImage;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.Java2DFrameConverter;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -42,4 +57,193 @@ class MediaExporterTest {
         assertEquals(240, metadata.height());
         assertTrue(progressReached.get());
     }
+
+    @Test
+    void segmentedExportSplitsAtKeyframesAndConcatenates() throws Exception {
+        Path workDir = Files.createTempDirectory("media-export-segmented");
+        Path input = workDir.resolve("input.mp4");
+        Path output = workDir.resolve("output.mp4");
+        TestMediaFactory.createSampleVideo(input, 320, 240, 180, 30.0);
+
+        List<Long> keyframes = SegmentedExporter.keyframeTimestamps(input);
+        List<SegmentedExporter.Chunk> chunks = SegmentedExporter.planChunks(input, keyframes, 0, 6_000_000, 3);
+        assertEquals(3, chunks.size());
+        for (SegmentedExporter.Chunk chunk : chunks.subList(1, chunks.size())) {
+            assertTrue(keyframes.contains(chunk.startMicros()));
+        }
+
+        AtomicBoolean progressReached = new AtomicBoolean(false);
+        ProgressReporter reporter = new ProgressReporter(snapshot -> {
+            if (snapshot.progress() >= 1.0) {
+                progressReached.set(true);
+            }
+        });
+        MediaExportRequest request = new MediaExportRequest(input, output, ExportPreset.FAST_PREVIEW, null, null, 30.0);
+        new MediaExporter().exportSegmented(request, Duration.ZERO, Duration.ofSeconds(6), 3, reporter);
+
+        MediaMetadata metadata = new MediaProbe().probe(output);
+        assertEquals(320, metadata.width());
+        assertTrue(Math.abs(metadata.durationMillis() - 6000) < 250, "duration was " + metadata.durationMillis());
+        assertTrue(progressReached.get());
+        assertTrue(Files.notExists(workDir.resolve(".output.mp4.chunks")));
+    }
+
+    @Test
+    void segmentedExportKeepsEveryVideoFrameAcrossChunkJoins() throws Exception {
+        Path workDir = Files.createTempDirectory("media-export-joins");
+        Path input = createAudioLeadingVideo(workDir.resolve("input.mkv"), 180);
+        Path output = workDir.resolve("output.mp4");
+
+        MediaExportRequest request = new MediaExportRequest(input, output, ExportPreset.FAST_PREVIEW, null, null, 30.0);
+        new MediaExporter().exportSegmented(request, Duration.ZERO, Duration.ofSeconds(6), 3, null);
+
+        assertEquals(videoFrames(input), videoFrames(output));
+    }
+
+    @Test
+    void segmentedExportKeepsAudioAndVideoInStepAcrossManyJoins() throws Exception {
+        Path workDir = Files.createTempDirectory("media-export-drift");
+        Path input = createClickTrackVideo(workDir.resolve("input.mp4"), 300);
+        Path output = workDir.resolve("output.mp4");
+        List<Long> keyframes = SegmentedExporter.keyframeTimestamps(input);
+        assertTrue(SegmentedExporter.planChunks(input, keyframes, 0, 10_000_000, 4).size() >= 3);
+
+        MediaExportRequest request = new MediaExportRequest(input, output, ExportPreset.FAST_PREVIEW, null, null, 30.0);
+        new MediaExporter().exportSegmented(request, Duration.ZERO, Duration.ofSeconds(10), 4, null);
+
+        double[] durations = streamDurations(output);
+        assertEquals(durations[0], durations[1], 0.05, "video " + durations[0] + "s, audio " + durations[1] + "s");
+        List<Long> expected = clickOnsets(input);
+        List<Long> actual = clickOnsets(output);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), 5_000, "click " + i + " drifted");
+        }
+    }
+
+    // Writes each frame's audio a third of a second before its picture without interleaving, so at every chunk
+    // boundary the demuxer hands out audio past the boundary while video before it is still to come.
+    private static Path createAudioLeadingVideo(Path output, int frames) throws Exception {
+        int sampleRate = 48_000;
+        int samplesPerFrame = sampleRate / 30;
+        int lead = 10;
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+        ShortBuffer silence = ShortBuffer.wrap(new short[samplesPerFrame]);
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), 320, 240, 1)) {
+            recorder.setFormat("matroska");
+            recorder.setInterleaved(false);
+            recorder.setFrameRate(30);
+            recorder.setGopSize(15);
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_MPEG4);
+            recorder.setVideoQuality(4);
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            recorder.setAudioCodec(avcodec.AV_CODEC_ID_PCM_S16LE);
+            recorder.setSampleRate(sampleRate);
+            recorder.start();
+            for (int i = 0; i < frames + lead; i++) {
+                if (i < frames) {
+                    silence.rewind();
+                    recorder.recordSamples(sampleRate, 1, silence);
+                }
+                if (i >= lead) {
+                    BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+                    image.getGraphics().fillRect(0, 0, (i - lead) % 320, 240);
+                    recorder.record(converter.convert(image));
+                }
+            }
+            recorder.stop();
+        }
+        return output;
+    }
+
+    // Sounds a tone under the first frame of every second, so a late or early join shows up as shifted clicks.
+    private static Path createClickTrackVideo(Path output, int frames) throws Exception {
+        int sampleRate = 44_100;
+        int samplesPerFrame = sampleRate / 30;
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+        short[] silence = new short[samplesPerFrame];
+        short[] tone = new short[samplesPerFrame];
+        for (int i = 0; i < tone.length; i++) {
+            tone[i] = (short) (16_000 * Math.sin(2 * Math.PI * 1_000 * i / sampleRate));
+        }
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), 320, 240, 1)) {
+            recorder.setFormat("mp4");
+            recorder.setFrameRate(30);
+            recorder.setGopSize(30);
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+            recorder.setAudioBitrate(128_000);
+            recorder.setSampleRate(sampleRate);
+            recorder.start();
+            for (int i = 0; i < frames; i++) {
+                BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+                image.getGraphics().fillRect(0, 0, i % 320, 240);
+                recorder.record(converter.convert(image));
+                recorder.recordSamples(sampleRate, 1, ShortBuffer.wrap(i % 30 == 0 ? tone : silence));
+            }
+            recorder.stop();
+        }
+        return output;
+    }
+
+    // Microsecond positions where the audio rises out of silence.
+    private static List<Long> clickOnsets(Path media) throws Exception {
+        List<Long> onsets = new ArrayList<>();
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(media.toFile())) {
+            grabber.setSampleMode(FrameGrabber.SampleMode.SHORT);
+            grabber.start();
+            long lastLoud = Long.MIN_VALUE / 2;
+            Frame frame;
+            while ((frame = grabber.grabSamples()) != null) {
+                ShortBuffer samples = (ShortBuffer) frame.samples[0];
+                for (int i = 0; samples.hasRemaining(); i++) {
+                    long position = frame.timestamp + i * 1_000_000L / frame.sampleRate;
+                    if (Math.abs(samples.get()) > 8_000) {
+                        if (position - lastLoud > 100_000) {
+                            onsets.add(position);
+                        }
+                        lastLoud = position;
+                    }
+                }
+            }
+        }
+        return onsets;
+    }
+
+    // Seconds from the first to the end of the last packet of the video and audio streams.
+    private static double[] streamDurations(Path media) throws Exception {
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(media.toFile())) {
+            grabber.start();
+            int[] streams = {grabber.getVideoStream(), grabber.getAudioStream()};
+            long[] first = {Long.MAX_VALUE, Long.MAX_VALUE};
+            long[] end = {Long.MIN_VALUE, Long.MIN_VALUE};
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                for (int i = 0; i < streams.length; i++) {
+                    if (packet.stream_index() == streams[i] && packet.pts() != avutil.AV_NOPTS_VALUE) {
+                        first[i] = Math.min(first[i], packet.pts());
+                        end[i] = Math.max(end[i], packet.pts() + packet.duration());
+                    }
+                }
+            }
+            double[] durations = new double[streams.length];
+            for (int i = 0; i < streams.length; i++) {
+                AVRational timeBase = grabber.getFormatContext().streams(streams[i]).time_base();
+                durations[i] = (end[i] - first[i]) * (double) timeBase.num() / timeBase.den();
+            }
+            return durations;
+        }
+    }
+
+    private static int videoFrames(Path media) throws Exception {
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(media.toFile())) {
+            grabber.start();
+            int frames = 0;
+            while (grabber.grabImage() != null) {
+                frames++;
+            }
+            return frames;
+        }
+    }
 }
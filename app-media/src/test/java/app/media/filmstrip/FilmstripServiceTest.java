@@ -0,0 +1,130 @@
+package app.media.filmstrip;
+
+import app.media.TestMediaFactory;
+import app.media.frame.FrameExtractor;
+import app.media.frame.FrameSink;
+import app.util.FailureBackoff;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilmstripServiceTest {
+    @TempDir
+    Path workDir;
+
+    @Test
+    void levelFollowsZoom() {
+        assertEquals(0, FilmstripService.levelFor(78, 400));
+        assertEquals(2, FilmstripService.levelFor(78, 78));
+        assertEquals(FilmstripService.LEVELS - 1, FilmstripService.levelFor(78, 0.01));
+    }
+
+    @Test
+    void buildsLevelsInBackgroundAndReusesCoarserThumbnails() throws Exception {
+        Path sample = TestMediaFactory.createSampleVideo(workDir.resolve("clip.mp4"), 160, 90, 60, 30.0);
+        Path atlasDir = workDir.resolve("atlas");
+        try (FrameExtractor extractor = new FrameExtractor(null);
+             FilmstripService service = new FilmstripService(extractor, atlasDir)) {
+            double coarseZoom = 78 / FilmstripService.intervalFor(1);
+            CountDownLatch coarseReady = new CountDownLatch(1);
+            assertNull(service.strip(sample, coarseZoom, coarseReady::countDown));
+            assertTrue(coarseReady.await(30, TimeUnit.SECONDS));
+            Filmstrip coarse = service.strip(sample, coarseZoom, null);
+            assertNotNull(coarse);
+            assertEquals(1, coarse.level());
+            assertEquals(78, coarse.thumbWidth());
+            assertEquals(4, coarse.count());
+
+            double fineZoom = 78 / FilmstripService.intervalFor(0);
+            CountDownLatch fineReady = new CountDownLatch(1);
+            assertEquals(coarse, service.strip(sample, fineZoom, fineReady::countDown));
+            assertTrue(fineReady.await(30, TimeUnit.SECONDS));
+            Filmstrip fine = service.strip(sample, fineZoom, null);
+            assertEquals(0, fine.level());
+            assertEquals(8, fine.count());
+            assertEquals(coarse.thumbnail(1), fine.thumbnail(2));
+            assertEquals(2, fine.indexAt(0.6));
+        }
+        try (var files = Files.list(atlasDir)) {
+            assertEquals(2, files.filter(file -> file.toString().endsWith(".strip")).count());
+        }
+    }
+
+    @Test
+    void evictedLevelsAreReportedAndReloadedFromTheirAtlas() throws Exception {
+        Path sample = TestMediaFactory.createSampleVideo(workDir.resolve("clip.mp4"), 160, 90, 60, 30.0);
+        try (FrameExtractor extractor = new FrameExtractor(null);
+             FilmstripService service = new FilmstripService(extractor, workDir.resolve("atlas"),
+                     FilmstripService.DEFAULT_THUMB_HEIGHT, 1)) {
+            List<Filmstrip> evicted = new CopyOnWriteArrayList<>();
+            service.addEvictionListener(evicted::add);
+            double coarseZoom = 78 / FilmstripService.intervalFor(1);
+            double fineZoom = 78 / FilmstripService.intervalFor(0);
+            Filmstrip coarse = await(service, sample, coarseZoom);
+            await(service, sample, fineZoom);
+            assertEquals(List.of(coarse), evicted);
+
+            Filmstrip reloaded = await(service, sample, coarseZoom);
+            assertNotSame(coarse, reloaded);
+            assertEquals(coarse.thumbnail(3), reloaded.thumbnail(3));
+        }
+    }
+
+    @Test
+    void failedBuildsAreRetriedAfterBackingOff() throws Exception {
+        Path sample = TestMediaFactory.createSampleVideo(workDir.resolve("clip.mp4"), 160, 90, 60, 30.0);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch firstFailed = new CountDownLatch(1);
+        FrameExtractor flaky = new FrameExtractor(null) {
+            @Override
+            public void extractFrames(Path mediaPath, double[] seconds, FrameSink sink) throws IOException {
+                if (attempts.incrementAndGet() == 1) {
+                    firstFailed.countDown();
+                    throw new IOException("decoder busy");
+                }
+                super.extractFrames(mediaPath, seconds, sink);
+            }
+        };
+        FailureBackoff backoff = new FailureBackoff(Duration.ofMillis(200), Duration.ofMillis(200));
+        try (flaky; FilmstripService service = new FilmstripService(flaky, workDir.resolve("atlas"),
+                FilmstripService.DEFAULT_THUMB_HEIGHT, 4, backoff)) {
+            double zoom = 78 / FilmstripService.intervalFor(1);
+            assertNull(service.strip(sample, zoom, null));
+            assertTrue(firstFailed.await(30, TimeUnit.SECONDS));
+
+            Filmstrip strip = null;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (strip == null && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+                strip = service.strip(sample, zoom, null);
+            }
+            assertNotNull(strip);
+            assertEquals(2, attempts.get());
+        }
+    }
+
+    private static Filmstrip await(FilmstripService service, Path sample, double zoom) throws InterruptedException {
+        CountDownLatch built = new CountDownLatch(1);
+        int wanted = FilmstripService.levelFor(78, zoom);
+        Filmstrip strip = service.strip(sample, zoom, built::countDown);
+        if (strip == null || strip.level() != wanted) {
+            assertTrue(built.await(30, TimeUnit.SECONDS));
+            strip = service.strip(sample, zoom, null);
+        }
+        assertEquals(wanted, strip.level());
+        return strip;
+    }
+}
@@ -0,0 +1,49 @@
+package app.media.frame;
+
+import app.media.TestMediaFactory;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DecoderSessionPoolTest {
+    @TempDir
+    Path mediaDir;
+
+    @Test
+    void forwardRequestsReuseOneSessionAndMatchSeekedFrames() throws Exception {
+        Path sample = TestMediaFactory.createSampleVideo(mediaDir.resolve("sample.mp4"), 160, 120, 60, 30.0);
+        try (DecoderSessionPool sequential = new DecoderSessionPool(4, Duration.ofMinutes(1))) {
+            for (int i = 0; i < 10; i++) {
+                double seconds = 0.2 + i * 0.1;
+                BufferedImage forward = sequential.extract(sample, seconds);
+                try (DecoderSessionPool fresh = new DecoderSessionPool(4, Duration.ofMinutes(1))) {
+                    BufferedImage seeked = fresh.extract(sample, seconds);
+                    assertEquals(seeked.getRGB(120, 100), forward.getRGB(120, 100), "frame at " + seconds);
+                }
+            }
+            assertEquals(1, sequential.openSessions());
+        }
+    }
+
+    @Test
+    void openHandlesAreCappedAndExpire() throws Exception {
+        Path first = TestMediaFactory.createSampleVideo(mediaDir.resolve("first.mp4"), 160, 120, 15, 30.0);
+        Path second = TestMediaFactory.createSampleVideo(mediaDir.resolve("second.mp4"), 160, 120, 15, 30.0);
+        try (DecoderSessionPool pool = new DecoderSessionPool(1, Duration.ofMillis(100))) {
+            pool.extract(first, 0.1);
+            pool.extract(second, 0.1);
+            pool.extract(first, 0.2);
+            assertEquals(1, pool.openSessions());
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (pool.openSessions() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, pool.openSessions());
+            assertEquals(160, pool.extract(second, 0.3).getWidth());
+        }
+    }
+}
@@ -5,6 +5,8 @@ import app.media.cache.FrameCache;
 import java.awt.image.BufferedImage;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -30,4 +32,27 @@ class FrameExtractorTest {
         assertNotNull(cached);
         assertEquals(320, cached.getWidth());
     }
+
+    @Test
+    void extractFramesMatchesSingleExtractionInTimeOrder() throws Exception {
+        Path mediaDir = Files.createTempDirectory("frame-extractor-batch");
+        Path sample = TestMediaFactory.createSampleVideo(mediaDir.resolve("sample.mp4"), 160, 120, 60, 30.0);
+        double[] seconds = {1.5, 0.2, 0.9, 0.2, 1.1};
+
+        List<Integer> indices = new ArrayList<>();
+        int[] colors = new int[seconds.length];
+        try (FrameExtractor batch = new FrameExtractor(null)) {
+            batch.extractFrames(sample, seconds, (index, at, frame) -> {
+                indices.add(index);
+                colors[index] = frame.getRGB(120, 100);
+            });
+        }
+
+        assertEquals(List.of(1, 3, 2, 4, 0), indices);
+        try (FrameExtractor single = new FrameExtractor(null)) {
+            for (int i = 0; i < seconds.length; i++) {
+                assertEquals(single.extract(sample, seconds[i]).getRGB(120, 100), colors[i], "frame at " + seconds[i]);
+            }
+        }
+    }
 }
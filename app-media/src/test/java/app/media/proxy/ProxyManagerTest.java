@@ -6,11 +6,19 @@ import java.awt.image.BufferedImage;
 import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ProxyManagerTest {
@@ -24,6 +32,91 @@ class ProxyManagerTest {
         assertTrue(Files.exists(proxy));
     }
 
+    @Test
+    void requestsRunInBackgroundWithProgressAndCancellation() throws Exception {
+        Path media = Files.createTempFile("proxy-async", ".mp4");
+        createSampleVideo(media);
+        Path proxyDir = Files.createTempDirectory("proxy-async-cache");
+        ProxyManager manager = new ProxyManager(proxyDir, 1);
+        try {
+            assertEquals(media, manager.resolve(media));
+            List<Double> progress = new CopyOnWriteArrayList<>();
+            CountDownLatch finishing = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            // Holds the only worker at the end of the first job, so the second one is still queued when cancelled.
+            CompletableFuture<Path> future = manager.requestProxy(media, 0, value -> {
+                progress.add(value);
+                if (value == 1.0 && Thread.currentThread().getName().startsWith("montage-proxy-")) {
+                    finishing.countDown();
+                    try {
+                        release.await(60, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            assertTrue(future == manager.requestProxy(media, 5, null));
+            assertTrue(finishing.await(60, TimeUnit.SECONDS));
+
+            Path other = Files.createTempFile("proxy-cancel", ".mp4");
+            createSampleVideo(other);
+            CompletableFuture<Path> cancelled = manager.requestProxy(other, 0, null);
+            assertTrue(manager.cancel(other));
+            release.countDown();
+            assertThrows(CancellationException.class, () -> cancelled.get(60, TimeUnit.SECONDS));
+            assertEquals(other, manager.resolve(other));
+
+            Path proxy = future.get(60, TimeUnit.SECONDS);
+            assertTrue(Files.exists(proxy));
+            assertEquals(proxy, manager.resolve(media));
+            assertEquals(1.0, progress.get(progress.size() - 1));
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    void raisingPriorityLetsAQueuedJobOvertakeEarlierOnes() throws Exception {
+        Path blocker = Files.createTempFile("proxy-blocker", ".mp4");
+        Path first = Files.createTempFile("proxy-first", ".mp4");
+        Path second = Files.createTempFile("proxy-second", ".mp4");
+        for (Path media : List.of(blocker, first, second)) {
+            createSampleVideo(media);
+        }
+        ProxyManager manager = new ProxyManager(Files.createTempDirectory("proxy-priority-cache"), 1);
+        try {
+            CountDownLatch finishing = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            // Holds the only worker so both later jobs are still queued when one of them is raised.
+            CompletableFuture<Path> held = manager.requestProxy(blocker, 0, value -> {
+                if (value == 1.0 && Thread.currentThread().getName().startsWith("montage-proxy-")) {
+                    finishing.countDown();
+                    try {
+                        release.await(60, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            assertTrue(finishing.await(60, TimeUnit.SECONDS));
+
+            List<Path> completed = new CopyOnWriteArrayList<>();
+            CompletableFuture<Path> firstDone = manager.requestProxy(first, 0, null)
+                    .whenComplete((proxy, error) -> completed.add(first));
+            CompletableFuture<Path> secondDone = manager.requestProxy(second, 0, null)
+                    .whenComplete((proxy, error) -> completed.add(second));
+            manager.prioritize(second, 5);
+            release.countDown();
+
+            held.get(60, TimeUnit.SECONDS);
+            firstDone.get(60, TimeUnit.SECONDS);
+            secondDone.get(60, TimeUnit.SECONDS);
+            assertEquals(List.of(second, first), completed);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
     private static void createSampleVideo(Path output) throws Exception {
         Java2DFrameConverter converter = new Java2DFrameConverter();
         try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), 320, 240, 1)) {
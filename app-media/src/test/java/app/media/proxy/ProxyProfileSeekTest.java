@@ -0,0 +1,153 @@
+package app.media.proxy;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Random frame-accurate access on each proxy profile. Seek latencies are only measured in the benchmark profile.
+class ProxyProfileSeekTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyProfileSeekTest.class);
+    private static final int FRAMES = 60;
+    private static final double FPS = 24;
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    void everyProfileSeeksToTheRequestedFrame() throws Exception {
+        Path source = createNumberedVideo(workDir.resolve("numbered.mp4"));
+        int[] reference = centreGrays(source);
+        ProxyManager manager = new ProxyManager(workDir.resolve("proxies"), 2);
+        try {
+            for (ProxyProfile profile : ProxyProfile.values()) {
+                Path proxy = manager.ensureProxy(source, profile);
+                try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(proxy.toFile());
+                     Java2DFrameConverter converter = new Java2DFrameConverter()) {
+                    grabber.start();
+                    assertEquals(profile.width(320), grabber.getImageWidth(), profile.name());
+                    for (int target : randomTargets()) {
+                        grabber.setTimestamp(timestamp(target));
+                        Frame frame = grabber.grabImage();
+                        BufferedImage image = converter.getBufferedImage(frame);
+                        int gray = image.getRGB(image.getWidth() / 2, image.getHeight() / 2) & 0xff;
+                        assertEquals(timestamp(target), frame.timestamp, profile + " frame " + target);
+                        assertEquals(reference[target], gray, 3, profile + " frame " + target);
+                    }
+                }
+            }
+            assertTrue(allKeyFrames(manager.ensureProxy(source, ProxyProfile.ALL_INTRA)));
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    // Latencies are logged, not asserted; run with mvn test -Pbenchmark.
+    @Test
+    @Tag("benchmark")
+    void randomSeekLatencyPerProfile() throws Exception {
+        Path source = createNumberedVideo(workDir.resolve("numbered.mp4"));
+        ProxyManager manager = new ProxyManager(workDir.resolve("proxies"), 2);
+        try {
+            for (ProxyProfile profile : ProxyProfile.values()) {
+                Path proxy = manager.ensureProxy(source, profile);
+                List<Integer> targets = randomTargets();
+                long totalNanos = 0;
+                try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(proxy.toFile())) {
+                    grabber.start();
+                    for (int target : targets) {
+                        long started = System.nanoTime();
+                        grabber.setTimestamp(timestamp(target));
+                        grabber.grabImage();
+                        totalNanos += System.nanoTime() - started;
+                    }
+                }
+                LOGGER.info("Proxy profile {}: {} random seeks, mean {} ms", profile, targets.size(),
+                        String.format("%.2f", totalNanos / 1e6 / targets.size()));
+            }
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static List<Integer> randomTargets() {
+        List<Integer> targets = new ArrayList<>();
+        for (int i = 0; i < FRAMES; i += 3) {
+            targets.add(i);
+        }
+        Collections.shuffle(targets, new Random(7));
+        return targets;
+    }
+
+    private static long timestamp(int frame) {
+        return Math.round(frame * 1_000_000 / FPS);
+    }
+
+    // Each source frame is a flat gray that steps by 4 levels per frame; decoded levels are what the proxies must match.
+    private static int[] centreGrays(Path source) throws Exception {
+        int[] grays = new int[FRAMES];
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(source.toFile());
+             Java2DFrameConverter converter = new Java2DFrameConverter()) {
+            grabber.start();
+            for (int i = 0; i < FRAMES; i++) {
+                BufferedImage image = converter.getBufferedImage(grabber.grabImage());
+                grays[i] = image.getRGB(image.getWidth() / 2, image.getHeight() / 2) & 0xff;
+            }
+        }
+        return grays;
+    }
+
+    private static boolean allKeyFrames(Path proxy) throws Exception {
+        try (FFmpegFrameGrabber grabber = FFmpegFrameGrabber.createDefault(proxy.toFile())) {
+            grabber.start();
+            Frame frame;
+            int frames = 0;
+            while ((frame = grabber.grabImage()) != null) {
+                if (!frame.keyFrame) {
+                    return false;
+                }
+                frames++;
+            }
+            return frames == FRAMES;
+        }
+    }
+
+    private static Path createNumberedVideo(Path output) throws Exception {
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), 320, 240, 0)) {
+            recorder.setFormat("mp4");
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+            recorder.setVideoBitrate(4_000_000);
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            recorder.setFrameRate(FPS);
+            recorder.start();
+            for (int i = 0; i < FRAMES; i++) {
+                BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+                Graphics2D g = image.createGraphics();
+                g.setColor(new Color(i * 4, i * 4, i * 4));
+                g.fillRect(0, 0, 320, 240);
+                g.dispose();
+                recorder.record(converter.convert(image));
+            }
+            recorder.stop();
+        }
+        return output;
+    }
+}
@@ -0,0 +1,86 @@
+package app.media.proxy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProxyStoreTest {
+    @TempDir
+    Path workDir;
+
+    @Test
+    void sameFileNameInDifferentFoldersGetsSeparateProxies() throws Exception {
+        Path first = source("shoot-a/intro.mp4", "a");
+        Path second = source("shoot-b/intro.mp4", "b");
+        ProxyStore store = new ProxyStore(Files.createDirectories(workDir.resolve("proxies")), Long.MAX_VALUE);
+
+        assertNotEquals(store.target(first, ProxyProfile.STANDARD), store.target(second, ProxyProfile.STANDARD));
+        store.commit(first, ProxyProfile.STANDARD, proxy(store.target(first, ProxyProfile.STANDARD), 10));
+        assertEquals(store.target(first, ProxyProfile.STANDARD), store.lookup(first, ProxyProfile.STANDARD));
+        assertNull(store.lookup(second, ProxyProfile.STANDARD));
+    }
+
+    @Test
+    void editedSourceInvalidatesItsProxy() throws Exception {
+        Path source = source("intro.mp4", "original");
+        ProxyStore store = new ProxyStore(Files.createDirectories(workDir.resolve("proxies")), Long.MAX_VALUE);
+        Path stale = proxy(store.target(source, ProxyProfile.STANDARD), 10);
+        store.commit(source, ProxyProfile.STANDARD, stale);
+
+        Files.writeString(source, "edited take");
+        Files.setLastModifiedTime(source, FileTime.from(Instant.now().plusSeconds(60)));
+
+        assertNull(store.lookup(source, ProxyProfile.STANDARD));
+        assertFalse(Files.exists(stale));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAndCleansOrphansOnRestart() throws Exception {
+        Path proxyDir = Files.createDirectories(workDir.resolve("proxies"));
+        Path a = source("a.mp4", "a");
+        Path b = source("b.mp4", "b");
+        Path c = source("c.mp4", "c");
+        ProxyStore store = new ProxyStore(proxyDir, 25);
+        store.commit(a, ProxyProfile.STANDARD, proxy(store.target(a, ProxyProfile.STANDARD), 10));
+        Thread.sleep(5);
+        store.commit(b, ProxyProfile.STANDARD, proxy(store.target(b, ProxyProfile.STANDARD), 10));
+        Thread.sleep(5);
+        store.lookup(a, ProxyProfile.STANDARD);
+        Thread.sleep(5);
+        store.commit(c, ProxyProfile.STANDARD, proxy(store.target(c, ProxyProfile.STANDARD), 10));
+
+        assertEquals(20, store.sizeBytes());
+        assertNull(store.lookup(b, ProxyProfile.STANDARD));
+        assertFalse(Files.exists(store.target(b, ProxyProfile.STANDARD)));
+        assertTrue(Files.exists(store.target(a, ProxyProfile.STANDARD)));
+
+        Path orphan = proxy(proxyDir.resolve("leftover-0123456789abcdef.proxy.mp4"), 5);
+        Path partial = proxy(proxyDir.resolve("c-0123456789abcdef.7.partial.mp4"), 5);
+        Files.delete(c);
+        ProxyStore reopened = new ProxyStore(proxyDir, 25);
+        assertEquals(1, reopened.size());
+        assertEquals(store.target(a, ProxyProfile.STANDARD), reopened.lookup(a, ProxyProfile.STANDARD));
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(partial));
+        assertTrue(Files.exists(proxyDir.resolve(ProxyStore.MANIFEST)));
+    }
+
+    private Path source(String name, String content) throws Exception {
+        Path path = workDir.resolve(name);
+        Files.createDirectories(path.getParent());
+        return Files.writeString(path, content);
+    }
+
+    private static Path proxy(Path path, int bytes) throws Exception {
+        return Files.write(path, new byte[bytes]);
+    }
+}
@@ -0,0 +1,50 @@
+package app.media.render;
+
+import app.domain.TrackType;
+import app.media.TestMediaFactory;
+import app.media.probe.MediaMetadata;
+import app.media.probe.MediaProbe;
+import app.render.RenderJob;
+import app.render.RenderPreset;
+import app.render.RenderQueue;
+import app.timeline.Timeline;
+import app.timeline.TimelineClip;
+import app.timeline.TimelineTrack;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaRenderBackendTest {
+    @Test
+    void renderQueueProducesOutputFromTimeline() throws Exception {
+        Path workDir = Files.createTempDirectory("media-render");
+        Path first = TestMediaFactory.createSampleVideo(workDir.resolve("first.mp4"), 320, 240, 30, 30.0);
+        Path second = TestMediaFactory.createSampleVideo(workDir.resolve("second.mp4"), 320, 240, 30, 30.0);
+
+        Timeline timeline = new Timeline();
+        TimelineTrack video = new TimelineTrack(TrackType.VIDEO);
+        video.addClip(new TimelineClip(first, Duration.ZERO, Duration.ofMillis(800)));
+        video.addClip(new TimelineClip(second, Duration.ofMillis(1200), Duration.ofMillis(800)));
+        timeline.addTrack(video);
+
+        Path output = workDir.resolve("render.mp4");
+        RenderQueue queue = new RenderQueue(workDir.resolve("jobs.json"), 1, projectFile -> timeline, new MediaRenderBackend());
+        try {
+            RenderJob job = new RenderJob(workDir.resolve("demo.project"), output, RenderPreset.INSTAGRAM_SQUARE,
+                    Duration.ZERO, Duration.ofSeconds(2), null);
+            queue.enqueue(job, 0).get(60, TimeUnit.SECONDS);
+        } finally {
+            queue.shutdown();
+        }
+
+        assertTrue(Files.exists(output));
+        MediaMetadata metadata = new MediaProbe().probe(output);
+        assertEquals(1080, metadata.width());
+        assertEquals(1080, metadata.height());
+        assertTrue(Math.abs(metadata.durationMillis() - 2000) < 200, "duration was " + metadata.durationMillis());
+    }
+}
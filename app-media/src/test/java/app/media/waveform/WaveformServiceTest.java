@@ -0,0 +1,109 @@
+package app.media.waveform;
+
+import app.util.FailureBackoff;
+import app.util.SourceIdentity;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WaveformServiceTest {
+    private static final int SAMPLE_RATE = 48_000;
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    void peaksFollowTheSignalAtEveryLevel() throws Exception {
+        Path audio = toneThenSilence(workDir.resolve("tone.wav"));
+        try (WaveformService service = new WaveformService(workDir.resolve("peaks"))) {
+            Waveform waveform = service.load(audio);
+            assertEquals(SAMPLE_RATE, waveform.sampleRate());
+            assertTrue(waveform.levels() > 5);
+            float[] minMax = new float[2];
+            for (int level = 0; level < 6; level++) {
+                assertTrue(waveform.range(level, 0.1, 0.9, minMax));
+                assertEquals(0.5, minMax[1], 0.02, "max at level " + level);
+                assertEquals(-0.5, minMax[0], 0.02, "min at level " + level);
+                assertTrue(waveform.range(level, 1.1, 1.9, minMax));
+                assertEquals(0.0, minMax[1], 0.01);
+            }
+            assertFalse(waveform.range(0, 5, 6, minMax));
+            assertEquals(0, waveform.levelFor(0.001));
+            assertTrue(waveform.peakSeconds(waveform.levelFor(0.1)) <= 0.1);
+        }
+    }
+
+    @Test
+    void peakFileIsReusedAfterRestart() throws Exception {
+        Path audio = toneThenSilence(workDir.resolve("tone.wav"));
+        Path peakDir = workDir.resolve("peaks");
+        int count;
+        try (WaveformService service = new WaveformService(peakDir)) {
+            CountDownLatch ready = new CountDownLatch(1);
+            assertNull(service.waveform(audio, ready::countDown));
+            assertTrue(ready.await(30, TimeUnit.SECONDS));
+            Waveform waveform = service.waveform(audio, null);
+            assertNotNull(waveform);
+            count = waveform.count(0);
+        }
+        try (var files = Files.list(peakDir)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".peaks")).count());
+        }
+        try (WaveformService service = new WaveformService(peakDir)) {
+            assertEquals(count, service.load(audio).count(0));
+        }
+    }
+
+    @Test
+    void failedAnalysisIsRetriedOnceTheBackoffExpires() throws Exception {
+        Path audio = toneThenSilence(workDir.resolve("tone.wav"));
+        // A file where the peak directory should be makes the first analysis fail to write its result.
+        Path peakDir = Files.writeString(workDir.resolve("peaks"), "in the way");
+        FailureBackoff backoff = new FailureBackoff(Duration.ofMillis(500), Duration.ofMillis(500));
+        try (WaveformService service = new WaveformService(peakDir, backoff)) {
+            assertNull(service.waveform(audio, null));
+            String id = SourceIdentity.of(audio);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (backoff.shouldAttempt(audio, id) && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertFalse(backoff.shouldAttempt(audio, id));
+            Files.delete(peakDir);
+
+            Waveform waveform = null;
+            while (waveform == null && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+                waveform = service.waveform(audio, null);
+            }
+            assertNotNull(waveform);
+        }
+    }
+
+    private static Path toneThenSilence(Path output) throws Exception {
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output.toFile(), 1)) {
+            recorder.setFormat("wav");
+            recorder.setAudioCodec(avcodec.AV_CODEC_ID_PCM_S16LE);
+            recorder.setSampleRate(SAMPLE_RATE);
+            recorder.start();
+            short[] samples = new short[SAMPLE_RATE * 2];
+            for (int i = 0; i < SAMPLE_RATE; i++) {
+                samples[i] = (short) Math.round(Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * 16384);
+            }
+            recorder.recordSamples(SAMPLE_RATE, 1, ShortBuffer.wrap(samples));
+            recorder.stop();
+        }
+        return output;
+    }
+}
@@ -1,13 +1,28 @@
 package app.ui.timeline;
 
+import app.media.filmstrip.Filmstrip;
+import app.media.filmstrip.FilmstripService;
+import app.media.waveform.Waveform;
+import app.media.waveform.WaveformService;
 import app.ui.i18n.I18n;
 import app.timeline.Timeline;
 import app.timeline.TimelineClip;
 import app.timeline.TimelineTrack;
 import java.text.NumberFormat;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 
@@ -15,11 +30,38 @@ public class TimelineCanvas extends Canvas {
     private static final double TRACK_HEIGHT = 80.0;
     private static final double TRACK_GAP = 16.0;
     private static final double RULER_HEIGHT = 26.0;
+    private static final int ATLAS_COLUMNS = 64;
+    private static final int MAX_ATLAS_IMAGES = 32;
 
     private final TimelineController controller;
+    private final FilmstripService filmstrips;
+    private final WaveformService waveforms;
+    // Uploaded atlases, least recently drawn first; only touched on the FX thread. Filmstrip keeps identity equality.
+    private final Map<Filmstrip, WritableImage> atlasImages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Filmstrip, WritableImage> eldest) {
+            return size() > MAX_ATLAS_IMAGES;
+        }
+    };
+    private final Set<Filmstrip> atlasesBuilding = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ExecutorService atlasBuilder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "montage-filmstrip-atlas");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean renderQueued = new AtomicBoolean();
 
     public TimelineCanvas(TimelineController controller) {
+        this(controller, null, null);
+    }
+
+    public TimelineCanvas(TimelineController controller, FilmstripService filmstrips, WaveformService waveforms) {
         this.controller = controller;
+        this.filmstrips = filmstrips;
+        this.waveforms = waveforms;
+        if (filmstrips != null) {
+            filmstrips.addEvictionListener(strip -> Platform.runLater(() -> atlasImages.remove(strip)));
+        }
         setWidth(1000);
         setHeight(280);
     }
@@ -90,6 +132,11 @@ public class TimelineCanvas extends Canvas {
         Color baseColor = trackType == app.domain.TrackType.VIDEO ? Color.web("#5791ff") : Color.web("#5bc487");
         gc.setFill(baseColor.deriveColor(0, 1, 1, 0.8));
         gc.fillRoundRect(startX, y, width, height, 8, 8);
+        if (trackType == app.domain.TrackType.VIDEO && filmstrips != null) {
+            drawFilmstrip(gc, clip, startX, y, width, height, pixelsPerSecond);
+        } else if (trackType == app.domain.TrackType.AUDIO && waveforms != null) {
+            drawWaveform(gc, clip, startX, y, width, height, pixelsPerSecond);
+        }
         gc.setStroke(baseColor.brighter());
         gc.strokeRoundRect(startX, y, width, height, 8, 8);
 
@@ -101,6 +148,97 @@ public class TimelineCanvas extends Canvas {
         gc.fillText(I18n.t("timeline.clip.parameters", clip.getPlaybackRate(), clip.getAudioGainDb()), startX + 8, y + 34);
     }
 
+    private void drawFilmstrip(GraphicsContext gc, TimelineClip clip, double startX, double y, double width, double height,
+                               double pixelsPerSecond) {
+        double rate = clip.getPlaybackRate() > 0 ? clip.getPlaybackRate() : 1.0;
+        Filmstrip strip = filmstrips.strip(clip.getSource(), pixelsPerSecond / rate, this::requestRender);
+        if (strip == null) {
+            return;
+        }
+        WritableImage atlas = atlasImages.get(strip);
+        if (atlas == null) {
+            buildAtlas(strip);
+            return;
+        }
+        double slotWidth = strip.thumbWidth() * height / strip.thumbHeight();
+        gc.save();
+        gc.beginPath();
+        gc.rect(startX, y, width, height);
+        gc.clip();
+        for (double x = startX; x < startX + width; x += slotWidth) {
+            int index = strip.indexAt((x - startX) / pixelsPerSecond * rate);
+            double sourceX = (index % ATLAS_COLUMNS) * strip.thumbWidth();
+            double sourceY = (index / ATLAS_COLUMNS) * strip.thumbHeight();
+            gc.drawImage(atlas, sourceX, sourceY, strip.thumbWidth(), strip.thumbHeight(), x, y, slotWidth, height);
+        }
+        gc.setFill(Color.rgb(0, 0, 0, 0.35));
+        gc.fillRect(startX, y, width, height);
+        gc.restore();
+    }
+
+    private void drawWaveform(GraphicsContext gc, TimelineClip clip, double startX, double y, double width, double height,
+                              double pixelsPerSecond) {
+        Waveform waveform = waveforms.waveform(clip.getSource(), this::requestRender);
+        if (waveform == null) {
+            return;
+        }
+        double rate = clip.getPlaybackRate() > 0 ? clip.getPlaybackRate() : 1.0;
+        double secondsPerPixel = rate / pixelsPerSecond;
+        int level = waveform.levelFor(secondsPerPixel);
+        double mid = y + height / 2;
+        double amplitude = height / 2 - 2;
+        float[] minMax = new float[2];
+        gc.save();
+        gc.setStroke(Color.web("#d9f5e3", 0.85));
+        gc.setLineWidth(1);
+        for (int column = 0; column < width; column++) {
+            if (!waveform.range(level, column * secondsPerPixel, (column + 1) * secondsPerPixel, minMax)) {
+                break;
+            }
+            double x = startX + column + 0.5;
+            gc.strokeLine(x, mid - minMax[1] * amplitude, x, mid - minMax[0] * amplitude);
+        }
+        gc.restore();
+    }
+
+    // Thumbnails and waveforms are built off the FX thread; coalesce their completions into one repaint.
+    private void requestRender() {
+        if (renderQueued.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                renderQueued.set(false);
+                render();
+            });
+        }
+    }
+
+    // Copying a whole level into an image takes too long for a paint, so it happens on a worker and the result is
+    // published back on the FX thread.
+    private void buildAtlas(Filmstrip strip) {
+        if (!atlasesBuilding.add(strip)) {
+            return;
+        }
+        atlasBuilder.execute(() -> {
+            WritableImage image = toImage(strip);
+            Platform.runLater(() -> {
+                atlasesBuilding.remove(strip);
+                atlasImages.put(strip, image);
+                requestRender();
+            });
+        });
+    }
+
+    private static WritableImage toImage(Filmstrip strip) {
+        int columns = Math.min(ATLAS_COLUMNS, strip.count());
+        int rows = (strip.count() + ATLAS_COLUMNS - 1) / ATLAS_COLUMNS;
+        WritableImage image = new WritableImage(columns * strip.thumbWidth(), rows * strip.thumbHeight());
+        for (int index = 0; index < strip.count(); index++) {
+            image.getPixelWriter().setPixels((index % ATLAS_COLUMNS) * strip.thumbWidth(),
+                    (index / ATLAS_COLUMNS) * strip.thumbHeight(), strip.thumbWidth(), strip.thumbHeight(),
+                    PixelFormat.getByteRgbInstance(), strip.thumbnail(index), strip.thumbWidth() * 3);
+        }
+        return image;
+    }
+
     private void drawPlayhead(GraphicsContext gc, Duration playhead, double pixelsPerSecond, double height) {
         double x = playhead.toMillis() / 1000.0 * pixelsPerSecond;
         gc.setStroke(Color.web("#ff6868"));
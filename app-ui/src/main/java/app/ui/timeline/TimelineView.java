@@ -1,6 +1,10 @@
 package app.ui.timeline;
 
+import app.media.filmstrip.FilmstripService;
+import app.media.frame.FrameExtractor;
+import app.media.waveform.WaveformService;
 import app.ui.i18n.I18n;
+import app.util.ConfigPaths;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
@@ -30,7 +34,9 @@ public class TimelineView extends BorderPane {
     public TimelineView() {
         controller = new TimelineController();
         getStyleClass().add("timeline-root");
-        canvas = new TimelineCanvas(controller);
+        canvas = new TimelineCanvas(controller,
+                new FilmstripService(new FrameExtractor(null), ConfigPaths.defaultCacheRoot().resolve("filmstrips")),
+                new WaveformService(ConfigPaths.defaultCacheRoot().resolve("waveforms")));
         controller.addListener(() -> {
             canvas.render();
             updateStatus();